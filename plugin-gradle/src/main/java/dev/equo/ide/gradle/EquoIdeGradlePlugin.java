@@ -21,6 +21,7 @@ import dev.equo.solstice.p2.CacheLocations;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.List;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -33,18 +34,19 @@ import org.gradle.api.attributes.Bundling;
 import org.gradle.api.tasks.TaskProvider;
 
 public class EquoIdeGradlePlugin implements Plugin<Project> {
-	static final String MINIMUM_GRADLE = "6.0";
+	static final String MINIMUM_GRADLE = "6.1";
 
 	private static final String TASK_GROUP = "IDE";
 	static final String EQUO_IDE = "equoIde";
 	private static final String EQUO_LIST = "equoList";
+	private static final String EQUO_PREFETCH = "equoPrefetch";
 
 	private static final String USE_ATOMOS_FLAG = "--use-atomos=";
 
 	@Override
 	public void apply(Project project) {
 		if (gradleIsTooOld(project)) {
-			throw new GradleException("equoIde requires Gradle 6.0 or later");
+			throw new GradleException("equoIde requires Gradle 6.1 or later");
 		}
 		setCacheLocations(project);
 
@@ -63,6 +65,10 @@ public class EquoIdeGradlePlugin implements Plugin<Project> {
 									task.setGroup(TASK_GROUP);
 									task.setDescription("Launches an Eclipse-based IDE for this project");
 									task.getEquoIdeWasCalledDirectly().set(equoIdeWasCalledDirectly);
+									task.getWorkspaceMaxAgeDays()
+											.set(workspaceLimit(project, "workspaceMaxAgeDays"));
+									task.getWorkspaceMaxTotalBytes()
+											.set(workspaceLimit(project, "workspaceMaxTotalBytes"));
 								});
 		project
 				.getTasks()
@@ -76,9 +82,83 @@ public class EquoIdeGradlePlugin implements Plugin<Project> {
 							task.getClientCaching().set(P2ModelDsl.clientCaching(project));
 							task.getExtension().set(extension);
 						});
+		var equoPrefetch = createResolvableConfiguration(project, EQUO_PREFETCH);
+		var equoPrefetchTask =
+				project
+						.getTasks()
+						.register(
+								EQUO_PREFETCH,
+								EquoPrefetchTask.class,
+								task -> {
+									task.setGroup(TASK_GROUP);
+									task.setDescription("Downloads the IDE's dependencies for every platform");
+									task.getExtension().set(extension);
+									var p2Sessions = P2SessionService.register(project);
+									task.getP2Sessions().set(p2Sessions);
+									task.usesService(p2Sessions);
+									task.getQueryCaching().set(P2ModelDsl.queryCaching(project));
+									task.getMavenDeps().set(equoPrefetch);
+								});
 		if (equoIdeWasCalledDirectly) {
 			configureEquoTasks(project, extension, equoIde, equoIdeTask);
 		}
+		if (anyArgEquals(project, EQUO_PREFETCH)) {
+			configurePrefetch(project, extension, equoPrefetch, equoPrefetchTask);
+		}
+	}
+
+	/**
+	 * Fills the maven side of {@code equoPrefetch} while the project is still being configured. The
+	 * deps which come from p2 are only known once the task has prefetched it, so those are added when
+	 * the task resolves the configuration.
+	 */
+	private static void configurePrefetch(
+			Project project,
+			EquoIdeExtension extension,
+			Configuration equoPrefetch,
+			TaskProvider<EquoPrefetchTask> equoPrefetchTask) {
+		var dependencies = project.getDependencies();
+		try {
+			for (var dep : DepsResolve.resolveSolsticeAndTransitives()) {
+				if (dep instanceof String) {
+					dependencies.add(EQUO_PREFETCH, dep);
+				}
+			}
+		} catch (IOException e) {
+			throw new GradleException("Unable to determine solstice version", e);
+		}
+		project.afterEvaluate(
+				unused -> {
+					try {
+						var model = extension.prepareModel(new WorkspaceInit());
+						for (var coordinate : model.getPureMaven()) {
+							// other projects would have to be built, which isn't prefetching
+							if (!coordinate.startsWith(":")) {
+								dependencies.add(EQUO_PREFETCH, coordinate);
+							}
+						}
+						if (Catalog.EQUO_CHROMIUM.isEnabled(model)) {
+							project.getRepositories().maven((a) -> a.setUrl(Catalog.EQUO_CHROMIUM.mavenRepo()));
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					equoPrefetch.withDependencies(
+							deps -> {
+								for (var result : equoPrefetchTask.get().getPrefetched().getOrElse(List.of())) {
+									for (var dep :
+											NestedJars.transitiveDeps(
+													extension.useAtomos, NestedJars.CoordFormat.GRADLE, result)) {
+										deps.add(dependencies.create(dep));
+									}
+									for (var coordinate : result.getJarsOnMavenCentral()) {
+										var dep = (ModuleDependency) dependencies.create(coordinate);
+										dep.setTransitive(false);
+										deps.add(dep);
+									}
+								}
+							});
+				});
 	}
 
 	private static void configureEquoTasks(
@@ -104,8 +184,6 @@ public class EquoIdeGradlePlugin implements Plugin<Project> {
 					try {
 						var workspace = new WorkspaceInit();
 						var model = extension.prepareModel(workspace);
-						var query =
-								model.query(P2ModelDsl.clientCaching(project), P2ModelDsl.queryCaching(project));
 						workspace.copyAllFrom(extension.workspace);
 						boolean useAtomosOverrideTrue =
 								anyArgMatching(
@@ -114,24 +192,32 @@ public class EquoIdeGradlePlugin implements Plugin<Project> {
 												arg.startsWith(USE_ATOMOS_FLAG)
 														&& Boolean.parseBoolean(arg.substring(USE_ATOMOS_FLAG.length())));
 						boolean useAtomos = extension.useAtomos || useAtomosOverrideTrue;
-						for (var dep :
-								NestedJars.transitiveDeps(useAtomos, NestedJars.CoordFormat.GRADLE, query)) {
-							project.getDependencies().add(EQUO_IDE, dep);
-						}
+						// the p2 query runs in its own task, only once the IDE is actually launching
+						var p2Resolve = P2ResolveTask.register(project, EQUO_IDE, model, false);
+						var dependencies = project.getDependencies();
+						equoIde.withDependencies(
+								deps -> {
+									var resolved = p2Resolve.get().resolved();
+									for (var dep :
+											NestedJars.transitiveDeps(
+													useAtomos,
+													NestedJars.CoordFormat.GRADLE,
+													resolved.jarsOnMavenCentral,
+													resolved.jarsNotOnMavenCentral)) {
+										deps.add(dependencies.create(dep));
+									}
+								});
 						// add the pure-maven deps
 						P2DepsExtension.addPureMavenDeps(model, project, EQUO_IDE);
 						// then the p2-resolved maven deps
-						for (var coordinate : query.getJarsOnMavenCentral()) {
-							ModuleDependency dep =
-									(ModuleDependency) project.getDependencies().add(EQUO_IDE, coordinate);
-							dep.setTransitive(false);
-						}
+						P2ResolveTask.addJarsOnMavenCentralTo(project, p2Resolve, equoIde);
 						if (Catalog.EQUO_CHROMIUM.isEnabled(model)) {
 							project.getRepositories().maven((a) -> a.setUrl(Catalog.EQUO_CHROMIUM.mavenRepo()));
 						}
 						equoIdeTask.configure(
 								task -> {
-									task.getQuery().set(query);
+									task.dependsOn(p2Resolve);
+									task.getP2Jars().set(P2ResolveTask.jarsNotOnMavenCentral(project, p2Resolve));
 									task.getMavenDeps().set(equoIde);
 									task.getProjectDir().set(project.getProjectDir());
 									// extension.useAtomos is on purpose, override is parsed inside the task
@@ -158,6 +244,12 @@ public class EquoIdeGradlePlugin implements Plugin<Project> {
 	}
 
 	private Configuration createConfiguration(Project project, String name) {
+		var config = createResolvableConfiguration(project, name);
+		P2DepsExtension.replace$osgiplatformWith(config, SwtPlatform.getRunning().toString());
+		return config;
+	}
+
+	private static Configuration createResolvableConfiguration(Project project, String name) {
 		return project
 				.getConfigurations()
 				.create(
@@ -171,7 +263,6 @@ public class EquoIdeGradlePlugin implements Plugin<Project> {
 									});
 							config.setCanBeConsumed(false);
 							config.setVisible(false);
-							P2DepsExtension.replace$osgiplatformWith(config, SwtPlatform.getRunning().toString());
 						});
 	}
 
@@ -189,6 +280,12 @@ public class EquoIdeGradlePlugin implements Plugin<Project> {
 		}
 	}
 
+	/** Lets the user opt into evicting old or oversized workspaces, null if they didn't. */
+	private static Long workspaceLimit(Project project, String name) {
+		Object value = project.findProperty("equo_" + name);
+		return value == null ? null : Long.parseLong(value.toString());
+	}
+
 	private static final Pattern BAD_SEMVER = Pattern.compile("(\\d+)\\.(\\d+)");
 
 	static boolean gradleIsTooOld(Project project) {
@@ -16,15 +16,12 @@ package dev.equo.ide.gradle;
 import dev.equo.ide.BuildPluginIdeMain;
 import dev.equo.ide.IdeHook;
 import dev.equo.ide.WorkspaceInit;
-import dev.equo.solstice.p2.P2QueryResult;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import javax.inject.Inject;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.file.FileCollection;
-import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.TaskAction;
@@ -32,7 +29,7 @@ import org.gradle.api.tasks.options.Option;
 
 public abstract class EquoIdeTask extends DefaultTask {
 	@Internal
-	public abstract Property<P2QueryResult> getQuery();
+	public abstract Property<FileCollection> getP2Jars();
 
 	@Internal
 	public abstract Property<FileCollection> getMavenDeps();
@@ -46,6 +43,12 @@ public abstract class EquoIdeTask extends DefaultTask {
 	@Internal
 	public abstract Property<Boolean> getEquoIdeWasCalledDirectly();
 
+	@Internal
+	public abstract Property<Long> getWorkspaceMaxAgeDays();
+
+	@Internal
+	public abstract Property<Long> getWorkspaceMaxTotalBytes();
+
 	@Internal IdeHook.List ideHooks;
 	@Internal WorkspaceInit workspace;
 
@@ -111,8 +114,43 @@ public abstract class EquoIdeTask extends DefaultTask {
 		this.debugIde = debugIde;
 	}
 
-	@Inject
-	public abstract ObjectFactory getObjectFactory();
+	private int activationThreads = 1;
+
+	@Option(
+			option = "activation-threads",
+			description =
+					"Activates independent bundles in parallel on this many threads (default 1, serial).")
+	void activationThreads(String activationThreads) {
+		this.activationThreads = Integer.parseInt(activationThreads);
+	}
+
+	private boolean profileStartup = false;
+
+	@Option(
+			option = "profile-startup",
+			description =
+					"Writes a startup profile and a Chrome trace of bundle activation into the workspace.")
+	void profileStartup(boolean profileStartup) {
+		this.profileStartup = profileStartup;
+	}
+
+	private boolean deferLazyActivation = false;
+
+	@Option(
+			option = "defer-lazy-activation",
+			description = "Activates lazy bundles when their classes are first loaded, not at startup.")
+	void deferLazyActivation(boolean deferLazyActivation) {
+		this.deferLazyActivation = deferLazyActivation;
+	}
+
+	private boolean classDataSharing = false;
+
+	@Option(
+			option = "class-data-sharing",
+			description = "Records an AppCDS archive on the first launch and uses it on later launches.")
+	void classDataSharing(boolean classDataSharing) {
+		this.classDataSharing = classDataSharing;
+	}
 
 	@TaskAction
 	public void launch() throws IOException, InterruptedException {
@@ -120,13 +158,16 @@ public abstract class EquoIdeTask extends DefaultTask {
 			throw new GradleException(
 					"You must call `equoIde` directly, you cannot call a task which depends on `equoIde`.");
 		}
-		var caller = BuildPluginIdeMain.Caller.forProjectDir(getProjectDir().get(), clean);
+		var caller =
+				BuildPluginIdeMain.Caller.forProjectDir(
+						getProjectDir().get(),
+						clean,
+						getWorkspaceMaxAgeDays().getOrNull(),
+						getWorkspaceMaxTotalBytes().getOrNull());
 
 		var classpath = new ArrayList<File>();
 		try {
-			var jarsNotOnMaven =
-					getObjectFactory().fileCollection().from(getQuery().get().getJarsNotOnMavenCentral());
-			var p2AndMavenDeps = jarsNotOnMaven.plus(getMavenDeps().get());
+			var p2AndMavenDeps = getP2Jars().get().plus(getMavenDeps().get());
 			p2AndMavenDeps.forEach(classpath::add);
 		} catch (Exception e) {
 			throw new GradleException(
@@ -152,6 +193,10 @@ public abstract class EquoIdeTask extends DefaultTask {
 		caller.showConsole = showConsole;
 		caller.useAtomos = useAtomosOverride != null ? useAtomosOverride : getUseAtomos().get();
 		caller.debugIde = debugIde;
+		caller.activationThreads = activationThreads;
+		caller.profileStartup = profileStartup;
+		caller.deferLazyActivation = deferLazyActivation;
+		caller.classDataSharing = classDataSharing;
 		caller.showConsoleFlag = "--show-console";
 		caller.cleanFlag = "--clean";
 		caller.launch();
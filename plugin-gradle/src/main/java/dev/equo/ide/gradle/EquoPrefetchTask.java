@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2022-2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide.gradle;
+
+import dev.equo.ide.WorkspaceInit;
+import dev.equo.solstice.p2.P2Prefetch;
+import dev.equo.solstice.p2.P2QueryCache;
+import dev.equo.solstice.p2.P2QueryResult;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Downloads everything that {@code equoIde} needs on every platform, so that a CI image can be
+ * built once and every later build on it can run with {@code --offline}. The p2 side goes through
+ * {@link P2Prefetch}, and the maven side is resolved into Gradle's own cache.
+ */
+public abstract class EquoPrefetchTask extends DefaultTask {
+	@Internal
+	public abstract Property<EquoIdeExtension> getExtension();
+
+	@Internal
+	public abstract Property<P2SessionService> getP2Sessions();
+
+	@Internal
+	public abstract Property<P2QueryCache> getQueryCaching();
+
+	/**
+	 * The {@code equoPrefetch} configuration, which adds what {@link #getPrefetched()} needs from
+	 * maven when it is resolved.
+	 */
+	@Internal
+	public abstract Property<FileCollection> getMavenDeps();
+
+	/** The p2 results of every platform, set once this task has prefetched them. */
+	@Internal
+	public abstract ListProperty<P2QueryResult> getPrefetched();
+
+	@TaskAction
+	public void prefetch() throws Exception {
+		var model = getExtension().get().prepareModel(new WorkspaceInit());
+		var models = P2Prefetch.forEveryPlatform(model);
+		getPrefetched().set(getP2Sessions().get().prefetch(models, getQueryCaching().get()));
+		int mavenJars = getMavenDeps().get().getFiles().size();
+		getLogger()
+				.lifecycle(
+						"Prefetched p2 dependencies for "
+								+ models.size()
+								+ " platforms and "
+								+ mavenJars
+								+ " maven jars");
+	}
+}
@@ -14,12 +14,8 @@
 package dev.equo.ide.gradle;
 
 import dev.equo.ide.IdeHook;
-import dev.equo.ide.Launcher;
 import dev.equo.ide.WorkspaceInit;
-import dev.equo.solstice.NestedJars;
-import dev.equo.solstice.SignedJars;
 import dev.equo.solstice.p2.P2Model;
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -28,7 +24,6 @@ import java.util.Map;
 import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
-import org.gradle.api.artifacts.ModuleDependency;
 import org.gradle.api.artifacts.ModuleVersionSelector;
 
 public class P2DepsExtension {
@@ -80,8 +75,6 @@ public class P2DepsExtension {
 	private final Map<String, P2Model> configurations = new HashMap<>();
 
 	void configure() {
-		var clientCaching = P2ModelDsl.clientCaching(project);
-		var queryCaching = P2ModelDsl.queryCaching(project);
 		for (Map.Entry<String, P2Model> entry : configurations.entrySet()) {
 			String config = entry.getKey();
 			P2Model model = entry.getValue();
@@ -89,31 +82,14 @@ public class P2DepsExtension {
 			project.getLogger().debug("useMavenCentral: " + model.useMavenCentral); // TODO: make debug
 			// add the pure-maven deps
 			addPureMavenDeps(model, project, config);
-			// then the maven-resolved deps
-			var query = model.query(clientCaching, queryCaching);
-			for (String mavenCoord : query.getJarsOnMavenCentral()) {
-				project
-						.getLogger()
-						.debug("Adding Maven resolved dependency: " + mavenCoord); // TODO: make debug
-				ModuleDependency dep = (ModuleDependency) project.getDependencies().add(config, mavenCoord);
-				dep.setTransitive(false);
-			}
-			// and the p2 ones
-			var nonMavenClasspath = new ArrayList<File>();
-			for (File coord : query.getJarsNotOnMavenCentral()) {
-				project
-						.getLogger()
-						.debug("Adding non-maven dependency: " + coord.getName()); // TODO: make debug
-			}
-			nonMavenClasspath.addAll(query.getJarsNotOnMavenCentral());
-			var classpathSorted = Launcher.copyAndSortClasspath(nonMavenClasspath);
-			SignedJars.stripIfNecessary(classpathSorted);
-			for (var nested : NestedJars.inFiles(classpathSorted).extractAllNestedJars()) {
-				classpathSorted.add(nested.getValue());
-			}
-			SignedJars.stripIfNecessary(classpathSorted);
-			project.getDependencies().add(config, project.files(classpathSorted));
-			replace$osgiplatformWith(project.getConfigurations().getByName(config), "");
+			// then the maven-resolved deps and the p2 ones, which are resolved lazily
+			var configuration = project.getConfigurations().getByName(config);
+			var p2Resolve = P2ResolveTask.register(project, config, model, true);
+			P2ResolveTask.addJarsOnMavenCentralTo(project, p2Resolve, configuration);
+			project
+					.getDependencies()
+					.add(config, P2ResolveTask.jarsNotOnMavenCentral(project, p2Resolve));
+			replace$osgiplatformWith(configuration, "");
 		}
 	}
 
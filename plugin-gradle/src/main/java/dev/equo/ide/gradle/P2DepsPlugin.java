@@ -18,14 +18,14 @@ import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 
 public class P2DepsPlugin implements Plugin<Project> {
-	static final String MINIMUM_GRADLE = "6.0";
+	static final String MINIMUM_GRADLE = "6.1";
 
 	private static final String P2DEPS = "p2deps";
 
 	@Override
 	public void apply(Project project) {
 		if (EquoIdeGradlePlugin.gradleIsTooOld(project)) {
-			throw new GradleException("dev.equo.p2deps requires Gradle 6.0 or later");
+			throw new GradleException("dev.equo.p2deps requires Gradle 6.1 or later");
 		}
 		EquoIdeGradlePlugin.setCacheLocations(project);
 
@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide.gradle;
+
+import dev.equo.ide.Launcher;
+import dev.equo.solstice.NestedJars;
+import dev.equo.solstice.SignedJars;
+import dev.equo.solstice.p2.P2Model;
+import dev.equo.solstice.p2.P2QueryCache;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ModuleDependency;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * Resolves a {@link P2Model} into the maven coordinates and p2 jars which it needs. Doing this in a
+ * task rather than in {@code afterEvaluate} means the network requests, metadata parsing and
+ * downloads only happen once something actually needs the dependencies, and an unchanged model
+ * whose jars are all still on disk is just an up-to-date task.
+ *
+ * <p>Gradle resolves a configuration's dependency graph while it is calculating the task graph, so
+ * the maven coordinates are added lazily with {@link Configuration#withDependencies}. If this task
+ * hasn't run yet in the current build, the previous result is used when it was recorded for the
+ * same model, and otherwise the model is resolved right there, but its p2 jars aren't downloaded
+ * until the task runs.
+ *
+ * <p>Either way the query goes through the build's {@link P2SessionService}, and when the task
+ * itself runs it does so in a worker, so the configurations of a build resolve in parallel.
+ */
+public abstract class P2ResolveTask extends DefaultTask {
+	@Internal P2Model model;
+
+	/** The model in its canonical form, which is what determines the result. */
+	@Input
+	public String getModel() {
+		return model.toString();
+	}
+
+	/** Whether to strip signatures and extract nested jars, which a launch does for itself. */
+	@Input
+	public abstract Property<Boolean> getPrepareJars();
+
+	@Internal
+	public abstract Property<P2QueryCache> getQueryCaching();
+
+	@Internal
+	public abstract Property<P2SessionService> getP2Sessions();
+
+	@OutputFile
+	public abstract RegularFileProperty getResolvedFile();
+
+	@Inject
+	public abstract WorkerExecutor getWorkerExecutor();
+
+	private Resolved resolved;
+	private boolean resolvedThisBuild = false;
+
+	@TaskAction
+	public void resolve() {
+		if (resolvedThisBuild) {
+			return;
+		}
+		// lets the resolve tasks of other configurations run at the same time
+		getWorkerExecutor()
+				.noIsolation()
+				.submit(
+						ResolveAction.class,
+						params -> {
+							params.getP2Sessions().set(getP2Sessions());
+							params.getModel().set(model);
+							params.getQueryCaching().set(getQueryCaching());
+							params.getPrepareJars().set(getPrepareJars());
+							params.getKey().set(key());
+							params.getResolvedFile().set(getResolvedFile());
+						});
+	}
+
+	public interface ResolveParams extends WorkParameters {
+		Property<P2SessionService> getP2Sessions();
+
+		Property<P2Model> getModel();
+
+		Property<P2QueryCache> getQueryCaching();
+
+		Property<Boolean> getPrepareJars();
+
+		Property<String> getKey();
+
+		RegularFileProperty getResolvedFile();
+	}
+
+	public abstract static class ResolveAction implements WorkAction<ResolveParams> {
+		@Override
+		public void execute() {
+			var params = getParameters();
+			try {
+				resolve(
+						params.getP2Sessions().get(),
+						params.getModel().get(),
+						params.getQueryCaching().get(),
+						params.getPrepareJars().get(),
+						true,
+						params.getKey().get(),
+						params.getResolvedFile().get().getAsFile());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/** Returns the result of this task, resolving it now if it isn't available yet. */
+	synchronized Resolved resolved() {
+		if (resolved == null) {
+			Resolved onDisk = null;
+			if (getQueryCaching().get().allowRead()) {
+				onDisk = Resolved.read(getResolvedFile().get().getAsFile(), key());
+			}
+			if (onDisk != null && onDisk.allJarsExist()) {
+				resolved = onDisk;
+			} else {
+				// only the maven coordinates are needed yet, the task itself downloads the p2 jars
+				boolean prepareJars = getPrepareJars().get();
+				try {
+					resolved =
+							resolve(
+									getP2Sessions().get(),
+									model,
+									getQueryCaching().get(),
+									prepareJars,
+									false,
+									key(),
+									getResolvedFile().get().getAsFile());
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				resolvedThisBuild = prepareJars;
+			}
+		}
+		return resolved;
+	}
+
+	private static Resolved resolve(
+			P2SessionService p2Sessions,
+			P2Model model,
+			P2QueryCache queryCaching,
+			boolean prepareJars,
+			boolean downloadJars,
+			String key,
+			File resolvedFile)
+			throws IOException {
+		var query = p2Sessions.query(model, queryCaching);
+		var jars =
+				new ArrayList<File>(
+						prepareJars || downloadJars
+								? query.getJarsNotOnMavenCentral()
+								: query.getJarsNotOnMavenCentralDestinations());
+		if (prepareJars) {
+			jars = Launcher.copyAndSortClasspath(jars);
+			SignedJars.stripIfNecessary(jars);
+			for (var nested : NestedJars.inFiles(jars).extractAllNestedJars()) {
+				jars.add(nested.getValue());
+			}
+			SignedJars.stripIfNecessary(jars);
+		}
+		var resolved = new Resolved(key, query.getJarsOnMavenCentral(), jars);
+		resolved.write(resolvedFile);
+		return resolved;
+	}
+
+	/** Up-to-date as long as the result is still on disk and the user didn't ask for a refresh. */
+	private boolean resultIsStillValid() {
+		if (!getQueryCaching().get().allowRead()) {
+			return false;
+		}
+		var onDisk = Resolved.read(getResolvedFile().get().getAsFile(), key());
+		return onDisk != null && onDisk.allJarsExist();
+	}
+
+	private String key() {
+		var key = NestedJars.solsticeVersion() + "\n" + getPrepareJars().get() + "\n" + getModel();
+		try {
+			var md5 = MessageDigest.getInstance("MD5");
+			md5.update(key.getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(md5.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Adds the resolved maven coordinates to the configuration, without their transitives. */
+	static void addJarsOnMavenCentralTo(
+			Project project, TaskProvider<P2ResolveTask> task, Configuration configuration) {
+		var dependencies = project.getDependencies();
+		var logger = project.getLogger();
+		configuration.withDependencies(
+				deps -> {
+					for (String coordinate : task.get().resolved().jarsOnMavenCentral) {
+						logger.debug("Adding Maven resolved dependency: " + coordinate);
+						ModuleDependency dep = (ModuleDependency) dependencies.create(coordinate);
+						dep.setTransitive(false);
+						deps.add(dep);
+					}
+				});
+	}
+
+	/** The resolved p2 jars, which are built by the given task. */
+	static FileCollection jarsNotOnMavenCentral(Project project, TaskProvider<P2ResolveTask> task) {
+		return project
+				.files((Callable<List<File>>) () -> task.get().resolved().jarsNotOnMavenCentral)
+				.builtBy(task);
+	}
+
+	/** Registers the task which resolves the given model for the given configuration. */
+	static TaskProvider<P2ResolveTask> register(
+			Project project, String configuration, P2Model model, boolean prepareJars) {
+		var p2Sessions = P2SessionService.register(project);
+		var queryCaching = P2ModelDsl.queryCaching(project);
+		var taskName =
+				"resolveP2" + Character.toUpperCase(configuration.charAt(0)) + configuration.substring(1);
+		var resolvedFile = project.getLayout().getBuildDirectory().file("equo/" + taskName + ".txt");
+		return project
+				.getTasks()
+				.register(
+						taskName,
+						P2ResolveTask.class,
+						task -> {
+							task.setDescription("Resolves the p2 dependencies of '" + configuration + "'");
+							task.model = model;
+							task.getPrepareJars().set(prepareJars);
+							task.getP2Sessions().set(p2Sessions);
+							task.usesService(p2Sessions);
+							task.getQueryCaching().set(queryCaching);
+							task.getResolvedFile().set(resolvedFile);
+							task.getOutputs().upToDateWhen(t -> ((P2ResolveTask) t).resultIsStillValid());
+						});
+	}
+
+	/**
+	 * The result of resolving a model, stored as one line per entry so that it's easy to inspect: a
+	 * {@code key} line which identifies the model, then {@code maven} coordinates and p2 {@code jar}
+	 * paths.
+	 */
+	static class Resolved {
+		private static final String KEY = "key ", MAVEN = "maven ", JAR = "jar ";
+
+		final String key;
+		final List<String> jarsOnMavenCentral;
+		final List<File> jarsNotOnMavenCentral;
+
+		Resolved(String key, List<String> jarsOnMavenCentral, List<File> jarsNotOnMavenCentral) {
+			this.key = key;
+			this.jarsOnMavenCentral = List.copyOf(jarsOnMavenCentral);
+			this.jarsNotOnMavenCentral = List.copyOf(jarsNotOnMavenCentral);
+		}
+
+		boolean allJarsExist() {
+			return jarsNotOnMavenCentral.stream().allMatch(File::isFile);
+		}
+
+		void write(File file) throws IOException {
+			var lines = new ArrayList<String>();
+			lines.add(KEY + key);
+			for (var coordinate : jarsOnMavenCentral) {
+				lines.add(MAVEN + coordinate);
+			}
+			for (var jar : jarsNotOnMavenCentral) {
+				lines.add(JAR + jar.getAbsolutePath());
+			}
+			Files.createDirectories(file.getParentFile().toPath());
+			// a build which reads it while another one is writing sees the old result or the new one
+			var temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			try {
+				Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+				Files.move(
+						temp.toPath(),
+						file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp.toPath());
+			}
+		}
+
+		/** Returns the result stored in the given file, or null if it's missing or for another key. */
+		static Resolved read(File file, String key) {
+			List<String> lines;
+			try {
+				lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+			} catch (NoSuchFileException e) {
+				return null;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			if (lines.isEmpty() || !lines.get(0).equals(KEY + key)) {
+				return null;
+			}
+			var jarsOnMavenCentral = new ArrayList<String>();
+			var jarsNotOnMavenCentral = new ArrayList<File>();
+			for (var line : lines.subList(1, lines.size())) {
+				if (line.startsWith(MAVEN)) {
+					jarsOnMavenCentral.add(line.substring(MAVEN.length()));
+				} else if (line.startsWith(JAR)) {
+					jarsNotOnMavenCentral.add(new File(line.substring(JAR.length())));
+				} else {
+					return null;
+				}
+			}
+			return new Resolved(key, jarsOnMavenCentral, jarsNotOnMavenCentral);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide.gradle;
+
+import dev.equo.solstice.p2.P2ClientCache;
+import dev.equo.solstice.p2.P2Model;
+import dev.equo.solstice.p2.P2Prefetch;
+import dev.equo.solstice.p2.P2QueryCache;
+import dev.equo.solstice.p2.P2QueryResult;
+import dev.equo.solstice.p2.SessionCache;
+import java.util.List;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Holds the {@link SessionCache} for the whole build, so that every configuration and subproject
+ * shares one p2 client and parses each set of p2 repos only once, and their queries can run in
+ * parallel.
+ *
+ * <p>The cache drops the least recently used sessions once they add up to more than {@code
+ * equo_p2MaxCachedUnits} units (a gradle property, {@value SessionCache#DEFAULT_MAX_CACHED_UNITS}
+ * by default), so a build with many different repo sets doesn't hold all of them in memory at once.
+ */
+public abstract class P2SessionService
+		implements BuildService<P2SessionService.Params>, AutoCloseable {
+	private static final String NAME = "equoP2Sessions";
+	private static final String MAX_CACHED_UNITS = "equo_p2MaxCachedUnits";
+
+	public interface Params extends BuildServiceParameters {
+		Property<P2ClientCache> getClientCaching();
+
+		Property<Integer> getMaxCachedUnits();
+	}
+
+	private final SessionCache sessions =
+			new SessionCache(
+					getParameters().getClientCaching().get(), getParameters().getMaxCachedUnits().get());
+
+	/** Registers the service for the whole build, or returns it if another project already did. */
+	static Provider<P2SessionService> register(Project project) {
+		var clientCaching = P2ModelDsl.clientCaching(project);
+		var maxCachedUnits = project.findProperty(MAX_CACHED_UNITS);
+		return project
+				.getGradle()
+				.getSharedServices()
+				.registerIfAbsent(
+						NAME,
+						P2SessionService.class,
+						spec -> {
+							spec.getParameters().getClientCaching().set(clientCaching);
+							spec.getParameters()
+									.getMaxCachedUnits()
+									.set(
+											maxCachedUnits == null
+													? SessionCache.DEFAULT_MAX_CACHED_UNITS
+													: Integer.parseInt(maxCachedUnits.toString()));
+						});
+	}
+
+	/** Queries the given model, parsing each set of repos at most once per build. */
+	P2QueryResult query(P2Model model, P2QueryCache queryCaching) {
+		return sessions.query(model, queryCaching);
+	}
+
+	/** Prefetches the given models, see {@link P2Prefetch}. */
+	List<P2QueryResult> prefetch(List<P2Model> models, P2QueryCache queryCaching) {
+		return P2Prefetch.prefetch(sessions, queryCaching, models);
+	}
+
+	@Override
+	public void close() {
+		sessions.close();
+	}
+}
@@ -94,6 +94,27 @@ public class EquoIdeTest extends GradleHarness {
 				.matches("(?s)(.*)Loaded (\\d+) bundles using Atomos(.*)");
 	}
 
+	@Test
+	public void deferLazyActivationStillFindsComponents() throws IOException {
+		setFile("build.gradle")
+				.toLines(
+						"plugins { id 'dev.equo.ide' }",
+						"repositories { mavenCentral() }",
+						"equoIde {",
+						"  p2repo 'https://download.eclipse.org/eclipse/updates/4.26/'",
+						"  install 'org.apache.felix.scr'",
+						"  install 'org.eclipse.ui.ide.application'",
+						"  useAtomos = false",
+						"}");
+		runAndAssert(
+						"equoIde",
+						"--init-only",
+						"--use-atomos=false",
+						"--defer-lazy-activation=true",
+						"--stacktrace")
+				.matches("(?s)(.*)Registered [1-9](\\d*) components of deferred bundles(.*)");
+	}
+
 	@Test
 	public void equoIdeWithDependency() throws IOException {
 		setFile("build.gradle")
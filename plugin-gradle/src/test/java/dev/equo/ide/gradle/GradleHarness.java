@@ -91,7 +91,7 @@ public class GradleHarness extends ResourceHarness {
 				// to support these older versions, we'll need to do some clever stuff
 				// in EquoIdeGradlePlugin to detect which EquoIdeTask to run,
 			case 13:
-				return "6.0";
+				return "6.1";
 			case 14:
 				return "6.3";
 			case 15:
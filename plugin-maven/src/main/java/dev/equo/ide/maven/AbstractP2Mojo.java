@@ -15,10 +15,13 @@ package dev.equo.ide.maven;
 
 import dev.equo.ide.IdeHook;
 import dev.equo.ide.WorkspaceInit;
+import dev.equo.solstice.p2.P2ClientCache;
 import dev.equo.solstice.p2.P2Model;
+import dev.equo.solstice.p2.SessionCache;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
@@ -52,6 +55,19 @@ public abstract class AbstractP2Mojo extends AbstractMojo {
 
 	@Parameter private List<String> installs = new ArrayList<>();
 
+	@Parameter(defaultValue = "${session}", required = true, readonly = true)
+	private MavenSession session;
+
+	/**
+	 * Returns the p2 cache shared by every execution in this Maven session, which is offline if
+	 * Maven is ({@code -o}).
+	 */
+	protected SessionCache sessionCache(boolean clean) {
+		var clientCaching =
+				P2ClientCache.defaultIfOfflineIsAndForceRecalculateIs(session.isOffline(), clean);
+		return MavenSessionCaches.get(session, clientCaching);
+	}
+
 	protected void modifyModel(P2Model model, IdeHook.List ideHooks, WorkspaceInit workspaceInit) {}
 
 	protected P2Model prepareModel(IdeHook.List ideHooks, WorkspaceInit workspaceInit)
@@ -21,7 +21,6 @@ import dev.equo.ide.IdeHookBranding;
 import dev.equo.ide.IdeHookWelcome;
 import dev.equo.ide.WorkspaceInit;
 import dev.equo.solstice.NestedJars;
-import dev.equo.solstice.p2.P2ClientCache;
 import dev.equo.solstice.p2.P2QueryCache;
 import java.io.File;
 import java.io.IOException;
@@ -84,6 +83,22 @@ public class LaunchMojo extends AbstractP2MojoWithCatalog {
 	@Parameter(property = "debugIde", defaultValue = "false")
 	private boolean debugIde;
 
+	/** Activates independent bundles in parallel on this many threads (default 1, serial). */
+	@Parameter(property = "activationThreads", defaultValue = "1")
+	private int activationThreads;
+
+	/** Writes a startup profile and a Chrome trace of bundle activation into the workspace. */
+	@Parameter(property = "profileStartup", defaultValue = "false")
+	private boolean profileStartup;
+
+	/** Activates lazy bundles when their classes are first loaded, not at startup. */
+	@Parameter(property = "deferLazyActivation", defaultValue = "false")
+	private boolean deferLazyActivation;
+
+	/** Records an AppCDS archive on the first launch and uses it on later launches. */
+	@Parameter(property = "classDataSharing", defaultValue = "false")
+	private boolean classDataSharing;
+
 	/** Sets properties in the Eclipse workspace. */
 	@Parameter(property = "workspaceProps")
 	private List<WorkspaceProp> workspaceProps = new ArrayList<>();
@@ -127,11 +142,12 @@ public class LaunchMojo extends AbstractP2MojoWithCatalog {
 					new Dependency(
 							new DefaultArtifact("dev.equo.ide:solstice:" + NestedJars.solsticeVersion()), null));
 			var workspaceInit = new WorkspaceInit();
-			boolean isOffline = false;
-			var clientCaching = P2ClientCache.defaultIfOfflineIsAndForceRecalculateIs(isOffline, clean);
 			var model = super.prepareModel(ideHooks, workspaceInit);
 			var query =
-					model.query(clientCaching, clean ? P2QueryCache.FORCE_RECALCULATE : P2QueryCache.ALLOW);
+					sessionCache(clean)
+							.query(model, clean ? P2QueryCache.FORCE_RECALCULATE : P2QueryCache.ALLOW);
+			// download the p2 jars in the background while maven resolves its dependencies
+			query.downloadJarsNotOnMavenCentral();
 			for (var dep : NestedJars.transitiveDeps(useAtomos, NestedJars.CoordFormat.MAVEN, query)) {
 				deps.add(new Dependency(new DefaultArtifact(dep), null, null, EXCLUDE_ALL_TRANSITIVES));
 			}
@@ -173,6 +189,10 @@ public class LaunchMojo extends AbstractP2MojoWithCatalog {
 			caller.showConsole = showConsole;
 			caller.useAtomos = useAtomos;
 			caller.debugIde = debugIde;
+			caller.activationThreads = activationThreads;
+			caller.profileStartup = profileStartup;
+			caller.deferLazyActivation = deferLazyActivation;
+			caller.classDataSharing = classDataSharing;
 			caller.showConsoleFlag = "-DshowConsole";
 			caller.cleanFlag = "-Dclean";
 			caller.launch();
@@ -16,7 +16,6 @@ package dev.equo.ide.maven;
 import dev.equo.ide.IdeHook;
 import dev.equo.ide.WorkspaceInit;
 import dev.equo.solstice.p2.ConsoleTable;
-import dev.equo.solstice.p2.P2ClientCache;
 import dev.equo.solstice.p2.P2Multitool;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -78,12 +77,10 @@ public class ListMojo extends AbstractP2MojoWithCatalog {
 					"Exactly one of -Drequest, -Dinstalled, -Dproblems, -Doptional, -Dall=[categories|features|jars], -Ddetail=id, or -Draw=id must be set.\n"
 							+ "`mvn help:describe -Dcmd=equo-ide:list -Ddetail` for more info or visit https://github.com/equodev/equo-ide/blob/main/P2_MULTITOOL.md");
 		}
-		boolean isOffline = false;
-		var clientCaching = P2ClientCache.defaultIfOfflineIsAndForceRecalculateIs(isOffline, clean);
 		try {
 			var workspaceUnused = new WorkspaceInit();
 			var model = prepareModel(new IdeHook.List(), workspaceUnused);
-			tool.dump(model, clientCaching);
+			tool.dump(model, sessionCache(clean));
 		} catch (Exception e) {
 			throw new MojoFailureException(e.getMessage(), e);
 		}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide.maven;
+
+import dev.equo.solstice.p2.P2ClientCache;
+import dev.equo.solstice.p2.SessionCache;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Holds one {@link SessionCache} per Maven build, so that every execution of our mojos in a build,
+ * including reactor modules built in parallel with {@code -T}, shares one p2 client and parses each
+ * set of p2 repos only once. Maven 3.0 (which we still support) has no session-scoped components,
+ * so the caches are held weakly by the build's {@link MavenExecutionRequest} instead, and go away
+ * along with it. Not by the {@link MavenSession}, because with {@code -T} every module gets its own
+ * clone of the session, but the clones all share the request.
+ */
+class MavenSessionCaches {
+	private static final Map<MavenExecutionRequest, Map<P2ClientCache, SessionCache>> caches =
+			new WeakHashMap<>();
+
+	static synchronized SessionCache get(MavenSession session, P2ClientCache clientCaching) {
+		return caches
+				.computeIfAbsent(session.getRequest(), unused -> new EnumMap<>(P2ClientCache.class))
+				.computeIfAbsent(
+						clientCaching, c -> new SessionCache(c, SessionCache.DEFAULT_MAX_CACHED_UNITS));
+	}
+}
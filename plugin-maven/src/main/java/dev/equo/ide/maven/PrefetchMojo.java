@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide.maven;
+
+import dev.equo.ide.Catalog;
+import dev.equo.ide.IdeHook;
+import dev.equo.ide.WorkspaceInit;
+import dev.equo.solstice.NestedJars;
+import dev.equo.solstice.p2.P2Prefetch;
+import dev.equo.solstice.p2.P2QueryCache;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.DependencyRequest;
+import org.eclipse.aether.resolution.DependencyResolutionException;
+
+/**
+ * Downloads everything that {@code equo-ide:launch} needs on every platform, so that a CI image can
+ * be built once and every later build on it can run with {@code -o}.
+ */
+@Mojo(name = "prefetch", aggregator = true)
+public class PrefetchMojo extends AbstractP2MojoWithCatalog {
+	/** Revalidates cached p2 data. */
+	@Parameter(property = "clean", defaultValue = "false")
+	private boolean clean;
+
+	/** Prefetches the dependencies of Atomos+Equinox instead of Solstice's built-in OSGi runtime. */
+	@Parameter(property = "useAtomos", defaultValue = "false")
+	private boolean useAtomos;
+
+	@Component protected RepositorySystem repositorySystem;
+
+	@Parameter(defaultValue = "${repositorySystemSession}", required = true, readonly = true)
+	protected RepositorySystemSession repositorySystemSession;
+
+	@Parameter(defaultValue = "${project.remotePluginRepositories}", required = true, readonly = true)
+	protected List<RemoteRepository> repositories;
+
+	private static final List<Exclusion> EXCLUDE_ALL_TRANSITIVES =
+			Collections.singletonList(new Exclusion("*", "*", "*", "*"));
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		var model = prepareModel(new IdeHook.List(), new WorkspaceInit());
+		var models = P2Prefetch.forEveryPlatform(model);
+		var results =
+				P2Prefetch.prefetch(
+						sessionCache(clean),
+						clean ? P2QueryCache.FORCE_RECALCULATE : P2QueryCache.ALLOW,
+						models);
+
+		List<Dependency> deps = new ArrayList<>();
+		deps.add(
+				new Dependency(
+						new DefaultArtifact("dev.equo.ide:solstice:" + NestedJars.solsticeVersion()), null));
+		for (var coord : model.getPureMaven()) {
+			deps.add(new Dependency(new DefaultArtifact(coord), null));
+		}
+		for (var result : results) {
+			for (var dep : NestedJars.transitiveDeps(useAtomos, NestedJars.CoordFormat.MAVEN, result)) {
+				deps.add(new Dependency(new DefaultArtifact(dep), null, null, EXCLUDE_ALL_TRANSITIVES));
+			}
+			for (var dep : result.getJarsOnMavenCentral()) {
+				deps.add(new Dependency(new DefaultArtifact(dep), null, null, EXCLUDE_ALL_TRANSITIVES));
+			}
+		}
+		var remoteRepositories = new ArrayList<>(repositories);
+		if (Catalog.EQUO_CHROMIUM.isEnabled(model)) {
+			remoteRepositories.add(
+					new RemoteRepository.Builder("chromium", "default", Catalog.EQUO_CHROMIUM.mavenRepo())
+							.build());
+		}
+		try {
+			var collectRequest = new CollectRequest(deps, null, remoteRepositories);
+			var dependencyResult =
+					repositorySystem.resolveDependencies(
+							repositorySystemSession, new DependencyRequest(collectRequest, null));
+			getLog()
+					.info(
+							"Prefetched p2 dependencies for "
+									+ models.size()
+									+ " platforms and "
+									+ dependencyResult.getArtifactResults().size()
+									+ " maven jars");
+		} catch (DependencyResolutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
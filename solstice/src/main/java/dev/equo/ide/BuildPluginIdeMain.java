@@ -20,6 +20,7 @@ import dev.equo.solstice.ShimIdeBootstrapServices;
 import dev.equo.solstice.SignedJars;
 import dev.equo.solstice.Solstice;
 import dev.equo.solstice.SolsticeManifest;
+import dev.equo.solstice.StartupProfiler;
 import dev.equo.solstice.p2.WorkspaceRegistry;
 import java.io.File;
 import java.io.IOException;
@@ -33,8 +34,10 @@ import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import org.eclipse.osgi.internal.location.EquinoxLocations;
 import org.eclipse.swt.widgets.Display;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
@@ -48,11 +51,28 @@ public class BuildPluginIdeMain {
 	public static class Caller {
 		public static Caller forProjectDir(File projectDir, boolean clean)
 				throws IOException, InterruptedException {
+			return forProjectDir(projectDir, clean, null, null);
+		}
+
+		/**
+		 * Same as above, and also evicts workspaces which haven't been used in {@code
+		 * workspaceMaxAgeDays} days, or the least recently used ones once they all take up more than
+		 * {@code workspaceMaxTotalBytes}, if those aren't null.
+		 */
+		public static Caller forProjectDir(
+				File projectDir,
+				boolean clean,
+				@Nullable Long workspaceMaxAgeDays,
+				@Nullable Long workspaceMaxTotalBytes)
+				throws IOException, InterruptedException {
 			var caller = new Caller();
 
 			var workspaceRegistry = WorkspaceRegistry.instance();
 			caller.workspaceDir = workspaceRegistry.workspaceDirForProjectDir(projectDir);
-			workspaceRegistry.removeAbandoned();
+			workspaceRegistry.removeAbandoned(
+					workspaceMaxAgeDays,
+					workspaceMaxTotalBytes,
+					workspaceDir -> IdeLockFile.forWorkspaceDir(workspaceDir).ideAlreadyRunning() != null);
 
 			caller.lockFile = IdeLockFile.forWorkspaceDir(caller.workspaceDir);
 			var alreadyRunning = caller.lockFile.ideAlreadyRunning();
@@ -75,6 +95,8 @@ public class BuildPluginIdeMain {
 		public ArrayList<File> classpath;
 		public BuildPluginIdeMain.DebugClasspath debugClasspath;
 		public Boolean initOnly, showConsole, useAtomos, debugIde;
+		public Integer activationThreads;
+		public Boolean profileStartup, deferLazyActivation, classDataSharing;
 		public String showConsoleFlag, cleanFlag;
 
 		public void launch() throws IOException, InterruptedException {
@@ -88,14 +110,35 @@ public class BuildPluginIdeMain {
 			Objects.requireNonNull(showConsole);
 			Objects.requireNonNull(useAtomos);
 			Objects.requireNonNull(debugIde);
+			Objects.requireNonNull(activationThreads);
+			Objects.requireNonNull(profileStartup);
+			Objects.requireNonNull(deferLazyActivation);
+			Objects.requireNonNull(classDataSharing);
 			Objects.requireNonNull(showConsoleFlag);
 			Objects.requireNonNull(cleanFlag);
 
-			ArrayList<File> classpathSorted = Launcher.copyAndSortClasspath(classpath);
-			SignedJars.stripIfNecessary(classpathSorted);
+			var ideHooksFile = new File(workspaceDir, "ide-hooks");
+			var bundlesInfo =
+					workspaceDir
+							.toPath()
+							.resolve("config/org.eclipse.equinox.simpleconfigurator/bundles.info");
+			var launchPlan = LaunchPlan.forWorkspaceDir(workspaceDir);
+			var launchPlanOutputs = List.of(ideHooksFile, bundlesInfo.toFile());
+			var fingerprint = LaunchPlan.fingerprint(classpath, ideHooks, useAtomos);
+			// if nothing has changed since the last launch, we can skip preparing the classpath
+			ArrayList<File> classpathSorted =
+					launchPlan.preparedClasspath(fingerprint, launchPlanOutputs);
+			boolean prepare = classpathSorted == null;
+
 			var nestedJarFolder = new File(workspaceDir, NestedJars.DIR);
-			for (var nested : NestedJars.inFiles(classpathSorted).extractAllNestedJars(nestedJarFolder)) {
-				classpathSorted.add(nested.getValue());
+			var scan = new ClasspathScan();
+			if (prepare) {
+				classpathSorted = Launcher.copyAndSortClasspath(classpath);
+				SignedJars.stripIfNecessary(classpathSorted);
+				for (var nested :
+						scan.nestedJars(classpathSorted).extractAllNestedJars(nestedJarFolder)) {
+					classpathSorted.add(nested.getValue());
+				}
 			}
 			var vmArgs = new ArrayList<String>();
 			var environmentVars = new LinkedHashMap<String, String>();
@@ -118,12 +161,15 @@ public class BuildPluginIdeMain {
 				}
 				// Patch in our browser replacement, which requires stripping the signature from the SWT
 				// packages, and activate the license
-				Patch.patch(classpathSorted, nestedJarFolder, "patch-chromium-swt");
-				SignedJars.stripIf(classpathSorted, fileName -> fileName.startsWith("org.eclipse.swt."));
+				if (prepare) {
+					Patch.patch(classpathSorted, nestedJarFolder, "patch-chromium-swt");
+					SignedJars.stripIf(
+							classpathSorted, fileName -> fileName.startsWith("org.eclipse.swt."));
+				}
 				vmArgs.add(
 						"-Dchromium.activate_equo_chromium=This distribution of the Equo browser is licensed only for use with an IDE launched by the EquoIDE build plugin");
 			}
-			if (useAtomos) {
+			if (useAtomos && prepare) {
 				// for Eclipse 4.27, we have patched the EquinoxBundle class so that it handles
 				// `getEntry("/")`
 				var version = Patch.detectVersion(classpathSorted, "org.eclipse.osgi");
@@ -132,7 +178,9 @@ public class BuildPluginIdeMain {
 					SignedJars.stripIf(classpathSorted, jarName -> jarName.startsWith("org.eclipse.osgi"));
 				}
 			}
-			SignedJars.stripIfNecessary(classpathSorted);
+			if (prepare) {
+				SignedJars.stripIfNecessary(classpathSorted);
+			}
 
 			if (lockFile.hasClasspath() && !classpathSorted.equals(lockFile.readClasspath())) {
 				System.out.println("WARNING! The classpath has changed since this IDE was setup.");
@@ -140,29 +188,33 @@ public class BuildPluginIdeMain {
 						"         Recommend closing the IDE and retrying with this flag: " + cleanFlag);
 			}
 
-			var ideHooksFile = new File(workspaceDir, "ide-hooks");
-			var ideHooksCopy = ideHooks.copy();
-			// add any IdeHooks which were declared in jar manifests
-			for (var jar : classpathSorted) {
-				var ideHook = SolsticeManifest.parseJar(jar).getHeadersOriginal().get("Bundle-IdeHook");
-				if (ideHook != null) {
-					ideHooksCopy.add(new IdeHookReflected(ideHook));
+			if (prepare) {
+				var ideHooksCopy = ideHooks.copy();
+				// add any IdeHooks which were declared in jar manifests
+				for (var jar : scan.scan(classpathSorted)) {
+					if (jar.manifest == null) {
+						continue;
+					}
+					var ideHook = jar.manifest.getHeadersOriginal().get("Bundle-IdeHook");
+					if (ideHook != null) {
+						ideHooksCopy.add(new IdeHookReflected(ideHook));
+					}
 				}
-			}
 
-			ideHooksCopy.add(IdeHookLockFile.forWorkspaceDirAndClasspath(workspaceDir, classpathSorted));
-			SerializableMisc.toFile(ideHooksCopy, ideHooksFile);
+				ideHooksCopy.add(
+						IdeHookLockFile.forWorkspaceDirAndClasspath(workspaceDir, classpathSorted));
+				SerializableMisc.toFile(ideHooksCopy, ideHooksFile);
+			}
 
 			workspaceInit.applyTo(workspaceDir);
 
 			var installDir = workspaceDir.toPath().resolve("install");
 			Files.createDirectories(installDir);
-			var bundlesInfo =
-					workspaceDir
-							.toPath()
-							.resolve("config/org.eclipse.equinox.simpleconfigurator/bundles.info");
-			Files.createDirectories(bundlesInfo.getParent());
-			Files.writeString(bundlesInfo, bundlesDotInfo(classpathSorted));
+			if (prepare) {
+				Files.createDirectories(bundlesInfo.getParent());
+				Files.writeString(bundlesInfo, bundlesDotInfo(scan.scan(classpathSorted)));
+				launchPlan.save(fingerprint, classpathSorted, launchPlanOutputs);
+			}
 
 			debugClasspath.printWithHead(
 					"jars about to be launched", classpathSorted.stream().map(File::getAbsolutePath));
@@ -184,6 +236,18 @@ public class BuildPluginIdeMain {
 				System.out.println("  e.g. jdb -attach localhost:8000");
 			}
 
+			File classpathJar;
+			if (classDataSharing && ClassDataSharing.isSupported()) {
+				var cds = new ClassDataSharing(workspaceDir);
+				classpathJar = cds.classpathJar(classpathSorted);
+				vmArgs.addAll(cds.vmArgs(classpathJar, classpathSorted));
+			} else {
+				if (classDataSharing) {
+					System.out.println("WARNING! Class data sharing requires Java 13 or newer, ignoring.");
+				}
+				classpathJar = Launcher.tempJarWithClasspath(classpathSorted);
+			}
+
 			Consumer<Process> monitorProcess;
 			if (isBlocking) {
 				monitorProcess = null;
@@ -192,13 +256,11 @@ public class BuildPluginIdeMain {
 				long lockFileBeforeLaunch = lockFile.readPidToken();
 				monitorProcess =
 						process -> {
-							// sleep over and over until the lockfile changes
-							while (lockFile.readPidToken() == lockFileBeforeLaunch) {
-								try {
-									Thread.sleep(10);
-								} catch (InterruptedException e) {
-									// ignore
-								}
+							// wait until the lockfile changes
+							try {
+								lockFile.awaitPidTokenChange(lockFileBeforeLaunch, process);
+							} catch (IOException | InterruptedException e) {
+								// ignore
 							}
 							// kill the console that we've been waiting on as a solution to
 							// https://github.com/equodev/equo-ide/issues/44
@@ -209,7 +271,7 @@ public class BuildPluginIdeMain {
 			var exitCode =
 					Launcher.launchJavaBlocking(
 							isBlocking,
-							classpathSorted,
+							classpathJar,
 							vmArgs,
 							BuildPluginIdeMain.class.getName(),
 							monitorProcess,
@@ -221,6 +283,12 @@ public class BuildPluginIdeMain {
 							Boolean.toString(initOnly),
 							"-debugClasspath",
 							debugClasspath.name(),
+							"-activationThreads",
+							Integer.toString(activationThreads),
+							"-profileStartup",
+							Boolean.toString(profileStartup),
+							"-deferLazyActivation",
+							Boolean.toString(deferLazyActivation),
 							"-ideHooks",
 							ideHooksFile.getAbsolutePath());
 			if (!isBlocking) {
@@ -283,7 +351,7 @@ public class BuildPluginIdeMain {
 		}
 	}
 
-	private static String bundlesDotInfo(List<File> cp) {
+	private static String bundlesDotInfo(List<ClasspathScan.Jar> cp) {
 		var buffer = new StringBuilder();
 		var newline = "\n";
 		// for a "real" file these should be different in different places...
@@ -294,9 +362,9 @@ public class BuildPluginIdeMain {
 		buffer.append(newline);
 		buffer.append("#version=1");
 		buffer.append(newline);
-		for (var file : cp) {
+		for (var jar : cp) {
 			try {
-				SolsticeManifest manifest = SolsticeManifest.parseJar(file);
+				SolsticeManifest manifest = jar.manifest;
 				if (manifest == null
 						|| manifest.getSymbolicName() == null
 						|| manifest.getVersion() == null) {
@@ -306,7 +374,7 @@ public class BuildPluginIdeMain {
 				buffer.append(',');
 				buffer.append(manifest.getVersion());
 				buffer.append(',');
-				buffer.append(file.toURI());
+				buffer.append(jar.file.toURI());
 				buffer.append(',');
 				buffer.append(startLevel);
 				buffer.append(',');
@@ -319,6 +387,26 @@ public class BuildPluginIdeMain {
 		return buffer.toString();
 	}
 
+	/** Activators on other threads may syncExec onto the display, so it has to keep dispatching. */
+	private static @Nullable Solstice.Waiter displayWaiter(@Nullable Display display) {
+		if (display == null) {
+			return null;
+		}
+		return new Solstice.Waiter() {
+			@Override
+			public void await() {
+				if (!display.readAndDispatch()) {
+					display.sleep();
+				}
+			}
+
+			@Override
+			public void wake() {
+				display.wake();
+			}
+		};
+	}
+
 	private static <T> T parseArg(
 			String[] args, String arg, Function<String, T> parser, T defaultValue) {
 		for (int i = 0; i < args.length - 1; ++i) {
@@ -345,6 +433,10 @@ public class BuildPluginIdeMain {
 		boolean initOnly = parseArg(args, "-initOnly", Boolean::parseBoolean, false);
 		DebugClasspath debugClasspath =
 				parseArg(args, "-debugClasspath", DebugClasspath::valueOf, DebugClasspath.disabled);
+		int activationThreads = parseArg(args, "-activationThreads", Integer::parseInt, 1);
+		boolean profileStartup = parseArg(args, "-profileStartup", Boolean::parseBoolean, false);
+		boolean deferLazyActivation =
+				parseArg(args, "-deferLazyActivation", Boolean::parseBoolean, false) && !useAtomos;
 		File hookListFile = parseArg(args, "-ideHooks", File::new, null);
 		IdeHook.List ideHooksParsed;
 		if (hookListFile == null) {
@@ -353,6 +445,9 @@ public class BuildPluginIdeMain {
 			ideHooksParsed = SerializableMisc.fromFile(IdeHook.List.class, hookListFile);
 		}
 		debugClasspath.printAndExitIfEnabled();
+		if (profileStartup) {
+			StartupProfiler.enable(installDir);
+		}
 
 		NestedJars.onClassPath()
 				.confirmAllNestedJarsArePresentOnClasspath(new File(installDir, NestedJars.DIR));
@@ -363,9 +458,9 @@ public class BuildPluginIdeMain {
 		var lockFileHook = ideHooks.find(IdeHookLockFile.Instantiated.class);
 		boolean isClean = lockFileHook == null || lockFileHook.isClean();
 		if (!initOnly) {
-			ideHooks.forEach(IdeHookInstantiated::isClean, isClean);
+			ideHooks.forEach("isClean", IdeHookInstantiated::isClean, isClean);
 			var display = Display.getDefault();
-			ideHooks.forEach(IdeHookInstantiated::afterDisplay, display);
+			ideHooks.forEach("afterDisplay", IdeHookInstantiated::afterDisplay, display);
 		}
 
 		var props = new LinkedHashMap<String, String>();
@@ -391,11 +486,22 @@ public class BuildPluginIdeMain {
 		} else {
 			solstice.openShim(props);
 			ShimIdeBootstrapServices.apply(props, solstice.getContext());
+			if (deferLazyActivation) {
+				solstice.deferLazyActivation();
+			}
 		}
 		ShimIdeBootstrapServices.shimAndAtomos(props, solstice.getContext());
 
 		solstice.start("org.apache.felix.scr");
-		solstice.startAllWithLazy(false);
+		if (activationThreads > 1) {
+			solstice.startAllWithLazyInParallel(
+					false,
+					activationThreads,
+					Fudge.activateOnMainThread(),
+					displayWaiter(Display.getCurrent()));
+		} else {
+			solstice.startAllWithLazy(false);
+		}
 		for (var eagerStart :
 				solstice.bundlesOnClasspathOutOf(Fudge.activateEagerWithoutTransitives())) {
 			solstice.startWithoutTransitives(eagerStart);
@@ -408,7 +514,7 @@ public class BuildPluginIdeMain {
 			dev.equo.solstice.BundleContextAtomos.urlWorkaround(solstice);
 		}
 		if (!initOnly) {
-			ideHooks.forEach(IdeHookInstantiated::afterOsgi, solstice.getContext());
+			ideHooks.forEach("afterOsgi", IdeHookInstantiated::afterOsgi, solstice.getContext());
 		}
 
 		if (initOnly) {
@@ -417,11 +523,25 @@ public class BuildPluginIdeMain {
 							+ solstice.getContext().getBundles().length
 							+ " bundles "
 							+ (useAtomos ? "using Atomos" : "not using Atomos"));
+			if (deferLazyActivation) {
+				// DS registers delayed components of a STARTING lazy bundle without activating it
+				int deferredComponents = 0;
+				var components =
+						solstice.getContext().getServiceReferences((String) null, "(component.name=*)");
+				for (var component : components) {
+					var bundleId = (Long) component.getProperty(Constants.SERVICE_BUNDLEID);
+					if (solstice.getContext().getBundle(bundleId).getState() == Bundle.STARTING) {
+						++deferredComponents;
+					}
+				}
+				System.out.println("Registered " + deferredComponents + " components of deferred bundles");
+			}
+			StartupProfiler.finish();
 			System.exit(0);
 			return;
 		}
 
-		int exitCode = IdeMainUi.main(solstice, ideHooks);
+		int exitCode = IdeMainUi.main(solstice, ideHooks, deferLazyActivation);
 		if (exitCode == 0) {
 			System.exit(0);
 		} else {
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Manages a dynamic AppCDS archive for the launched IDE, stored in the workspace next to the
+ * {@link IdeLockFile} classpath. The first launch records every class it loads into the archive
+ * when the JVM exits, and later launches map the already-parsed and verified classes straight from
+ * the archive.
+ *
+ * <p>The JVM silently ignores an archive whose classpath doesn't match, so the archive is named
+ * after a hash of the classpath (including the size and timestamp of every jar) and of the JVM,
+ * and any stale archive is deleted before a new one is recorded. For the same reason, the
+ * long-classpath jar is kept at a stable location instead of a new temp file on every launch.
+ */
+class ClassDataSharing {
+	static final String DIR = "cds";
+
+	/** Dynamic archives ({@code -XX:ArchiveClassesAtExit}) were added in Java 13. */
+	static boolean isSupported() {
+		return Runtime.version().feature() >= 13;
+	}
+
+	private final File dir;
+
+	ClassDataSharing(File workspaceDir) {
+		this.dir = new File(workspaceDir, DIR);
+	}
+
+	/** The long-classpath jar, which must be launched along with {@link #vmArgs}. */
+	File classpathJar(List<File> classpath) throws IOException {
+		Files.createDirectories(dir.toPath());
+		var classpathJar = new File(dir, "classpath.jar");
+		Launcher.writeJarWithClasspath(classpathJar, classpath);
+		return classpathJar;
+	}
+
+	/** Returns the VM args which use the archive if it is up-to-date, or record it otherwise. */
+	List<String> vmArgs(File classpathJar, List<File> classpath) {
+		var archive = new File(dir, archiveKey(classpathJar, classpath) + ".jsa");
+		var vmArgs = new ArrayList<String>();
+		if (Runtime.version().feature() >= 19) {
+			// the JVM validates the archive itself, and regenerates it if it's stale
+			vmArgs.add("-XX:+AutoCreateSharedArchive");
+			vmArgs.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+		} else if (archive.isFile()) {
+			vmArgs.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+		} else {
+			vmArgs.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+		}
+		deleteStaleArchives(archive);
+		return vmArgs;
+	}
+
+	private void deleteStaleArchives(File current) {
+		var files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (var file : files) {
+			if (file.getName().endsWith(".jsa") && !file.equals(current)) {
+				FileMisc.delete(file);
+			}
+		}
+	}
+
+	private static String archiveKey(File classpathJar, List<File> classpath) {
+		var key = new StringBuilder();
+		key.append(System.getProperty("java.home")).append('\n');
+		key.append(Runtime.version()).append('\n');
+		appendFile(key, classpathJar);
+		for (var file : classpath) {
+			appendFile(key, file);
+		}
+		try {
+			var md5 = MessageDigest.getInstance("MD5");
+			md5.update(key.toString().getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(md5.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void appendFile(StringBuilder key, File file) {
+		key.append(file.getAbsolutePath())
+				.append(' ')
+				.append(file.length())
+				.append(' ')
+				.append(file.lastModified())
+				.append('\n');
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide;
+
+import dev.equo.solstice.NestedJars;
+import dev.equo.solstice.SolsticeManifest;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * Opens each jar on the classpath exactly once during launch preparation, reading its manifest in
+ * parallel with the other jars, and hands the same {@link Jar} to everything which needs to know
+ * about it (nested jars, {@code Bundle-IdeHook}, and {@code bundles.info}). Jars which are added to
+ * the classpath later (patches, stripped signatures, nested jars) are scanned on demand.
+ */
+class ClasspathScan {
+	/** Everything launch preparation needs from a single jar. */
+	static class Jar {
+		final File file;
+		/** Null if the jar has no manifest. */
+		final @Nullable SolsticeManifest manifest;
+		/** The nested jars declared by its {@code Bundle-ClassPath}. */
+		final List<URL> nestedJars;
+
+		private Jar(File file) {
+			this.file = file;
+			try (var jarFile = new JarFile(file)) {
+				var manifest = jarFile.getManifest();
+				if (manifest == null) {
+					this.manifest = null;
+					this.nestedJars = List.of();
+				} else {
+					this.manifest = SolsticeManifest.parseJar(file, manifest);
+					this.nestedJars = List.copyOf(NestedJars.declaredIn(file, manifest));
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private final Map<File, Jar> scanned = new ConcurrentHashMap<>();
+
+	/** Returns the scan of every jar in the classpath, in the same order. */
+	List<Jar> scan(List<File> classpath) {
+		return classpath.parallelStream()
+				.map(file -> scanned.computeIfAbsent(file, Jar::new))
+				.collect(Collectors.toList());
+	}
+
+	/** Returns every nested jar declared by the jars in the classpath. */
+	NestedJars nestedJars(List<File> classpath) {
+		var nestedJars = new ArrayList<URL>();
+		for (var jar : scan(classpath)) {
+			nestedJars.addAll(jar.nestedJars);
+		}
+		return NestedJars.inUrls(nestedJars);
+	}
+}
@@ -32,4 +32,16 @@ class Fudge {
 				"org.eclipse.egit.core",
 				"org.eclipse.jsch.core");
 	}
+
+	/**
+	 * Bundles whose activators need to run on the UI thread, so {@link
+	 * dev.equo.ide.BuildPluginIdeMain} keeps them on the main thread when activating in parallel.
+	 */
+	static List<String> activateOnMainThread() {
+		return List.of(
+				"org.eclipse.e4.ui.workbench.swt",
+				"org.eclipse.ui.ide",
+				"org.eclipse.ui.workbench",
+				"org.eclipse.swt");
+	}
 }
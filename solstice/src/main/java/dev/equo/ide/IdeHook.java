@@ -13,6 +13,7 @@
  *******************************************************************************/
 package dev.equo.ide;
 
+import dev.equo.solstice.StartupProfiler;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -108,9 +109,9 @@ public interface IdeHook extends Serializable {
 			errorsToReport = null;
 		}
 
-		void forEach(ThrowingConsumer method) {
+		void forEach(String phase, ThrowingConsumer method) {
 			for (IdeHookInstantiated hook : list) {
-				try {
+				try (var span = StartupProfiler.span("ideHook", " ", phase, hook.getClass().getName())) {
 					method.accept(hook);
 				} catch (Exception e) {
 					logError(hook, e);
@@ -118,9 +119,9 @@ public interface IdeHook extends Serializable {
 			}
 		}
 
-		<T> void forEach(ThrowingBiConsumer<T> method, T arg) {
+		<T> void forEach(String phase, ThrowingBiConsumer<T> method, T arg) {
 			for (IdeHookInstantiated hook : list) {
-				try {
+				try (var span = StartupProfiler.span("ideHook", " ", phase, hook.getClass().getName())) {
 					method.accept(hook, arg);
 				} catch (Exception e) {
 					logError(hook, e);
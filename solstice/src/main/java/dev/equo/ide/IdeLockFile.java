@@ -16,7 +16,14 @@ package dev.equo.ide;
 import dev.equo.solstice.SerializableMisc;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.Nullable;
 
 public class IdeLockFile {
@@ -82,11 +89,7 @@ public class IdeLockFile {
 		if (running == NO_TOKEN_FILE) {
 			return null;
 		}
-		var alreadyRunning =
-				ProcessHandle.allProcesses()
-						.filter(processHandle -> processHandle.pid() == running)
-						.findAny()
-						.orElse(null);
+		var alreadyRunning = ProcessHandle.of(running).filter(ProcessHandle::isAlive).orElse(null);
 		if (alreadyRunning == null) {
 			writePidToken(NO_TOKEN_FILE);
 			return null;
@@ -94,6 +97,31 @@ public class IdeLockFile {
 		return alreadyRunning;
 	}
 
+	private static final long MS_POLL = 100;
+
+	/**
+	 * Blocks until the pid token is different from {@code pidBefore} (the launched IDE has started
+	 * and saved its pid) or until {@code process} exits. Watches the workspace directory rather than
+	 * spinning, and only re-reads the token when something in the directory changed, or every {@link
+	 * #MS_POLL} ms for platforms where the {@link WatchService} is slow or polling-based.
+	 */
+	void awaitPidTokenChange(long pidBefore, Process process)
+			throws IOException, InterruptedException {
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			workspaceDir
+					.toPath()
+					.register(
+							watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			while (readPidToken() == pidBefore && process.isAlive()) {
+				WatchKey key = watcher.poll(MS_POLL, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					key.pollEvents();
+					key.reset();
+				}
+			}
+		}
+	}
+
 	public static boolean alreadyRunningAndUserRequestsAbort(ProcessHandle running)
 			throws IOException, InterruptedException {
 		if (running == null) {
@@ -103,8 +131,17 @@ public class IdeLockFile {
 		System.out.println("Shut it down yourself or press");
 		System.out.println("  (k + enter) to kill it");
 		System.out.println("  (a + enter) to abort");
-		while (running.isAlive()) {
-			Thread.sleep(10);
+		var exited = running.onExit();
+		while (true) {
+			try {
+				// returns as soon as the process exits, no matter how it was shut down
+				exited.get(MS_POLL, TimeUnit.MILLISECONDS);
+				break;
+			} catch (TimeoutException e) {
+				// still running, check if the user typed anything
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e);
+			}
 			if (System.in.available() > 0) {
 				char c = Character.toLowerCase((char) System.in.read());
 				if (c == 'k') {
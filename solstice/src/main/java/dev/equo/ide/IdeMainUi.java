@@ -14,6 +14,7 @@
 package dev.equo.ide;
 
 import dev.equo.solstice.Solstice;
+import dev.equo.solstice.StartupProfiler;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
@@ -32,7 +33,8 @@ import org.osgi.framework.ServiceListener;
 import org.osgi.service.application.ApplicationException;
 
 class IdeMainUi {
-	static int main(Solstice solstice, IdeHook.InstantiatedList ideHooks)
+	static int main(
+			Solstice solstice, IdeHook.InstantiatedList ideHooks, boolean deferLazyActivation)
 			throws InvalidSyntaxException {
 		var appServices =
 				solstice
@@ -70,21 +72,24 @@ class IdeMainUi {
 				new IDEWorkbenchAdvisor(processor) {
 					@Override
 					public void initialize(IWorkbenchConfigurer configurer) {
-						solstice.startAllWithLazy(true);
+						if (!deferLazyActivation) {
+							solstice.startAllWithLazy(true);
+						}
 						super.initialize(configurer);
-						ideHooks.forEach(IdeHookInstantiated::initialize);
+						ideHooks.forEach("initialize", IdeHookInstantiated::initialize);
 					}
 
 					@Override
 					public void preStartup() {
 						super.preStartup();
-						ideHooks.forEach(IdeHookInstantiated::preStartup);
+						ideHooks.forEach("preStartup", IdeHookInstantiated::preStartup);
 					}
 
 					@Override
 					public void postStartup() {
 						super.postStartup();
-						ideHooks.forEach(IdeHookInstantiated::postStartup);
+						ideHooks.forEach("postStartup", IdeHookInstantiated::postStartup);
+						StartupProfiler.finish();
 					}
 
 					@Override
@@ -105,7 +110,7 @@ class IdeMainUi {
 					@Override
 					public void postShutdown() {
 						super.postShutdown();
-						ideHooks.forEach(IdeHookInstantiated::postShutdown);
+						ideHooks.forEach("postShutdown", IdeHookInstantiated::postShutdown);
 					}
 
 					@Override
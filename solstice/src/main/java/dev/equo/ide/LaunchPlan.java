@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.ide;
+
+import dev.equo.solstice.SerializableMisc;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the result of preparing a classpath for launch (sorting, stripping signatures,
+ * extracting nested jars, patching, finding {@code Bundle-IdeHook}s and writing {@code
+ * bundles.info}) along with a fingerprint of its inputs. When the project hasn't changed, {@link
+ * BuildPluginIdeMain.Caller#launch()} can skip all of that and go straight to launching the JVM.
+ *
+ * <p>The plan is only reused if every file it produced is still exactly where and how it was left,
+ * so deleting or touching anything in the workspace just causes a normal cold launch.
+ */
+class LaunchPlan {
+	private static final String FILENAME = "launch-plan";
+
+	private final File workspaceDir;
+
+	private LaunchPlan(File workspaceDir) {
+		this.workspaceDir = workspaceDir;
+	}
+
+	static LaunchPlan forWorkspaceDir(File workspaceDir) {
+		return new LaunchPlan(workspaceDir);
+	}
+
+	/** Hashes everything which affects the prepared classpath, hooks, and bundles.info. */
+	static String fingerprint(List<File> classpath, IdeHook.List ideHooks, boolean useAtomos) {
+		try {
+			var md5 = MessageDigest.getInstance("MD5");
+			var key = new StringBuilder();
+			key.append("useAtomos=").append(useAtomos).append('\n');
+			// a new version of EquoIDE might prepare the classpath differently
+			var codeSource = LaunchPlan.class.getProtectionDomain().getCodeSource();
+			if (codeSource != null && codeSource.getLocation() != null) {
+				appendStamp(key, new File(codeSource.getLocation().toURI()));
+			}
+			for (var file : classpath) {
+				appendStamp(key, file);
+			}
+			md5.update(key.toString().getBytes(StandardCharsets.UTF_8));
+
+			var hooks = new ByteArrayOutputStream();
+			try (var objectStream = new ObjectOutputStream(hooks)) {
+				objectStream.writeObject(ideHooks);
+			}
+			md5.update(hooks.toByteArray());
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(md5.digest());
+		} catch (NoSuchAlgorithmException | IOException | URISyntaxException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void appendStamp(StringBuilder key, File file) {
+		key.append(file.getAbsolutePath())
+				.append(' ')
+				.append(file.length())
+				.append(' ')
+				.append(file.lastModified())
+				.append('\n');
+	}
+
+	/**
+	 * Returns the prepared classpath if the plan was recorded with the same fingerprint and none of
+	 * its outputs have changed since, otherwise null.
+	 */
+	@Nullable
+	ArrayList<File> preparedClasspath(String fingerprint, List<File> outputs) {
+		var file = new File(workspaceDir, FILENAME);
+		if (!file.isFile()) {
+			return null;
+		}
+		Plan plan;
+		try {
+			plan = SerializableMisc.fromFile(Plan.class, file);
+		} catch (RuntimeException e) {
+			// corrupt or from an incompatible version
+			return null;
+		}
+		if (plan.fingerprint.equals(fingerprint)
+				&& plan.outputStamps.equals(stamps(plan, outputs))) {
+			return plan.classpath;
+		} else {
+			return null;
+		}
+	}
+
+	/** Records the prepared classpath, along with the other files the preparation wrote. */
+	void save(String fingerprint, ArrayList<File> classpath, List<File> outputs) {
+		var plan = new Plan();
+		plan.fingerprint = fingerprint;
+		plan.classpath = new ArrayList<>(classpath);
+		plan.outputStamps = stamps(plan, outputs);
+		SerializableMisc.toFile(plan, new File(workspaceDir, FILENAME));
+	}
+
+	private static String stamps(Plan plan, List<File> outputs) {
+		var stamps = new StringBuilder();
+		for (var file : plan.classpath) {
+			appendStamp(stamps, file);
+		}
+		for (var file : outputs) {
+			appendStamp(stamps, file);
+		}
+		return stamps.toString();
+	}
+
+	@SuppressWarnings("serial")
+	private static class Plan implements Serializable {
+		String fingerprint;
+		ArrayList<File> classpath;
+		String outputStamps;
+	}
+}
@@ -15,6 +15,7 @@ package dev.equo.ide;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -23,6 +24,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -47,6 +49,23 @@ public class Launcher {
 			@Nullable Consumer<Process> monitorProcess,
 			String... args)
 			throws IOException, InterruptedException {
+		return launchJavaBlocking(
+				blocking, tempJarWithClasspath(cp), vmArgs, mainClass, monitorProcess, args);
+	}
+
+	/**
+	 * Same as {@link #launchJavaBlocking(boolean, List, List, String, Consumer, String...)}, except
+	 * that the classpath is a jar created by {@link #tempJarWithClasspath(List)} or {@link
+	 * #writeJarWithClasspath(File, List)}.
+	 */
+	public static int launchJavaBlocking(
+			boolean blocking,
+			File classpathJar,
+			List<String> vmArgs,
+			String mainClass,
+			@Nullable Consumer<Process> monitorProcess,
+			String... args)
+			throws IOException, InterruptedException {
 		String javaHome = System.getProperty("java.home");
 		String javaBin = javaHome + File.separator + "bin" + File.separator + "java";
 		String javaCmd;
@@ -56,9 +75,6 @@ public class Launcher {
 			javaCmd = "java";
 		}
 
-		File classpathJar = Launcher.toJarWithClasspath(cp);
-		classpathJar.deleteOnExit();
-
 		List<String> command = new ArrayList<>();
 		command.add(javaCmd);
 		command.addAll(vmArgs);
@@ -143,12 +159,26 @@ public class Launcher {
 
 	private static final String LONG_CLASSPATH_JAR_PREFIX = "long-classpath";
 
-	/** Creates a jar with a Class-Path entry to workaround the windows classpath limitation. */
-	private static File toJarWithClasspath(List<File> files) throws IOException {
+	/** Writes a jar with a Class-Path entry into a temp file which is deleted on exit. */
+	public static File tempJarWithClasspath(List<File> files) throws IOException {
 		File jarFile = File.createTempFile(LONG_CLASSPATH_JAR_PREFIX, ".jar");
-		try (ZipOutputStream zip =
-				new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)))) {
-			zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+		jarFile.deleteOnExit();
+		writeJarWithClasspath(jarFile, files);
+		return jarFile;
+	}
+
+	/**
+	 * Writes a jar with a Class-Path entry to workaround the windows classpath limitation. If the jar
+	 * already has exactly this content it is left untouched, so that its timestamp stays the same
+	 * (which class data sharing depends on).
+	 */
+	public static void writeJarWithClasspath(File jarFile, List<File> files) throws IOException {
+		var content = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(content)) {
+			var entry = new ZipEntry("META-INF/MANIFEST.MF");
+			// a fixed timestamp, so that the same classpath always makes the same bytes
+			entry.setTime(0);
+			zip.putNextEntry(entry);
 			try (PrintWriter pw =
 					new PrintWriter(
 							new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8)))) {
@@ -164,7 +194,14 @@ public class Launcher {
 						String.join("\n ", bufferClassPath.toString().split(MATCH_CHUNKS_OF_70_CHARACTERS)));
 			}
 		}
-		return jarFile;
+		var bytes = content.toByteArray();
+		if (jarFile.length() == bytes.length
+				&& Arrays.equals(bytes, Files.readAllBytes(jarFile.toPath()))) {
+			return;
+		}
+		try (var output = new BufferedOutputStream(new FileOutputStream(jarFile))) {
+			output.write(bytes);
+		}
 	}
 
 	public static ArrayList<File> copyAndSortClasspath(Iterable<File> files) {
@@ -29,6 +29,8 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
 import org.eclipse.core.internal.runtime.InternalPlatform;
 import org.eclipse.osgi.framework.log.FrameworkLog;
 import org.eclipse.osgi.internal.framework.EquinoxBundle;
@@ -140,6 +142,18 @@ public class BundleContextShim extends ServiceRegistry {
 
 	private final List<ShimBundle> bundles = new ArrayList<>();
 
+	/** Non-null iff lazy bundles are activated on first class load, see {@link LazyActivation}. */
+	volatile @Nullable LazyActivation lazyActivation;
+
+	void deferLazyActivation(Consumer<SolsticeManifest> activate) {
+		var deferred = new LazyActivation(bundles, activate);
+		lazyActivation = deferred;
+		for (var bundle : deferred.deferred()) {
+			bundle.state = Bundle.STARTING;
+			notifyBundleListeners(BundleEvent.LAZY_ACTIVATION, bundle);
+		}
+	}
+
 	public ShimBundle bundleForSymbolicName(String name) {
 		for (ShimBundle bundle : bundles) {
 			if (name.equals(bundle.getSymbolicName())) {
@@ -296,7 +310,11 @@ public class BundleContextShim extends ServiceRegistry {
 		// TODO: not sure if we can survive without FrameworkEvents
 	}
 
-	synchronized void notifyBundleListeners(int type, ShimBundle bundle) {
+	/**
+	 * Not synchronized, because bundles are activated concurrently and a listener might block on
+	 * another thread, e.g. the UI thread. Iterating {@link #bundleListeners} iterates a snapshot.
+	 */
+	void notifyBundleListeners(int type, ShimBundle bundle) {
 		var event = new BundleEvent(type, bundle);
 		for (BundleListener listener : bundleListeners) {
 			try {
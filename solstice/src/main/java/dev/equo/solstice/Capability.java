@@ -14,9 +14,14 @@
 package dev.equo.solstice;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -93,14 +98,6 @@ public class Capability implements Comparable<Capability> {
 		return builder.toString();
 	}
 
-	private Capability swap(int... indices) {
-		Capability copy = new Capability(namespace);
-		for (int i = 0; i < indices.length; ++i) {
-			copy.add(keyValue.get(2 * indices[i]), keyValue.get(2 * indices[i] + 1));
-		}
-		return copy;
-	}
-
 	public boolean isSubsetOfElementIn(Iterable<Capability> other) {
 		for (var cap : other) {
 			if (isSubsetOf(cap)) {
@@ -160,125 +157,143 @@ public class Capability implements Comparable<Capability> {
 	/**
 	 * A map whose keys are {@link Capability}, and you can quickly retrieve entries which match
 	 * superset of the {@link Capability} you request.
+	 *
+	 * <p>Implemented as an inverted index per namespace from each key=value pair to the entries
+	 * which provide it. A lookup takes the shortest posting list among the requested pairs and checks
+	 * its entries for the full superset match, so it works for any number of attributes. Writes are
+	 * serialized, reads are lock-free and safe to run concurrently with each other and with writes.
 	 */
 	public static class SupersetMap<T> {
-		private @Nullable Capability lookingForSupersetOf;
-		private final TreeMap<Capability, T> map =
-				new TreeMap<>(
-						(a, b) -> {
-							if (lookingForSupersetOf == null) {
-								return a.compareTo(b);
-							} else {
-								if (lookingForSupersetOf == a && b.isSupersetOf(lookingForSupersetOf)) {
-									return 0;
-								} else if (lookingForSupersetOf == b && a.isSupersetOf(lookingForSupersetOf)) {
-									return 0;
-								} else {
-									return a.compareTo(b);
-								}
-							}
-						});
-		private final TreeMap<Capability, T> toStringMap = new TreeMap<>();
-
-		/** Adds the given entry. */
-		public void put(Capability cap, T value) {
-			if (lookingForSupersetOf != null) {
-				throw new IllegalStateException();
+		private static final class Entry<T> {
+			final Capability cap;
+			/** The same pairs sorted by key, which decides between entries that both match. */
+			final Capability sorted;
+			volatile T value;
+
+			Entry(Capability cap, T value) {
+				this.cap = cap;
+				this.value = value;
+				var indices = new ArrayList<Integer>(cap.size());
+				for (int i = 0; i < cap.size(); ++i) {
+					indices.add(i);
+				}
+				indices.sort(
+						Comparator.<Integer, String>comparing(i -> cap.keyValue.get(2 * i))
+								.thenComparing(i -> cap.keyValue.get(2 * i + 1)));
+				this.sorted = new Capability(cap.namespace);
+				for (int i : indices) {
+					sorted.add(cap.keyValue.get(2 * i), cap.keyValue.get(2 * i + 1));
+				}
+			}
+
+			/** Whether this entry wins over the given one when both are supersets of a lookup. */
+			boolean winsOver(@Nullable Entry<T> other) {
+				return other == null || sorted.compareTo(other.sorted) > 0;
+			}
+		}
+
+		/** namespace -> key -> value -> entries which provide that pair, in insertion order */
+		private final ConcurrentHashMap<
+						String, ConcurrentHashMap<String, ConcurrentHashMap<String, List<Entry<T>>>>>
+				index = new ConcurrentHashMap<>();
+		private final ConcurrentSkipListMap<Capability, Entry<T>> entries =
+				new ConcurrentSkipListMap<>();
+
+		/** Adds the given entry, replacing the value of an equal capability if present. */
+		public synchronized void put(Capability cap, T value) {
+			if (cap.size() == 0) {
+				throw new IllegalArgumentException("Must have at least one key/value");
+			}
+			var existing = entries.get(cap);
+			if (existing != null) {
+				existing.value = value;
+				return;
 			}
-			toStringMap.put(cap, value);
-			/*
-			 * <pre>
-			 * var set = new TreeSet<Capability>();
-			 * set.add(Capability.parse("namespace:name=foo,class=bar"))
-			 * set.contains(Capability.parse("Capability.parse("namespace:name=foo)))   // subset matching says this should be true, and it is, huzzah!
-			 * set.contains(Capability.parse("Capability.parse("namespace:class=bar)))  // subset matching says this should be true, but key ordering says it is not (class=bar is less than name=foo)
-			 * </pre>
-			 *
-			 * The example above works perfect for capabilities with only one property. For capabilities with two
-			 * properties, we can work around the problem by doing additions in both possible orders
-			 *
-			 * <pre>
-			 * set.add(Capability.parse("namespace:name=foo,class=bar"))
-			 * set.add(Capability.parse("namespace:class=bar,name=foo"))
-			 * </pre>
-			 *
-			 * But this workaround is combinatoric. For a capability with three properties, we have to add it in
-			 * 3! = 6 different orders. We implemented this combinatoric by hardcoding the cases for 1, 2, 3 and
-			 * we error out on 4 or higher.
-			 */
-			switch (cap.size()) {
-				case 0:
-					throw new IllegalArgumentException("Must have at least one key/value");
-				case 1:
-					map.put(cap, value);
-					break;
-				case 2:
-					map.put(cap, value);
-					// total.add(cap.swap(0, 1)); // same as just cap
-					map.put(cap.swap(1, 0), value);
-					break;
-				case 3:
-					map.put(cap, value);
-					// map.put(cap.swap(0, 1, 2), value); // same as just cap
-					map.put(cap.swap(0, 2, 1), value);
-					map.put(cap.swap(1, 0, 2), value);
-					map.put(cap.swap(1, 2, 0), value);
-					map.put(cap.swap(2, 0, 1), value);
-					map.put(cap.swap(2, 1, 0), value);
-					break;
-				case 4:
-					map.put(cap, value);
-					// map.put(cap.swap(0, 1, 2, 3), value); // same as just cap
-					map.put(cap.swap(0, 1, 3, 2), value);
-					map.put(cap.swap(0, 2, 1, 3), value);
-					map.put(cap.swap(0, 2, 3, 1), value);
-					map.put(cap.swap(0, 3, 1, 2), value);
-					map.put(cap.swap(0, 3, 2, 1), value);
-					map.put(cap.swap(1, 0, 2, 3), value);
-					map.put(cap.swap(1, 0, 3, 2), value);
-					map.put(cap.swap(1, 2, 0, 3), value);
-					map.put(cap.swap(1, 2, 3, 0), value);
-					map.put(cap.swap(1, 3, 0, 2), value);
-					map.put(cap.swap(1, 3, 2, 0), value);
-					map.put(cap.swap(2, 0, 1, 3), value);
-					map.put(cap.swap(2, 0, 3, 1), value);
-					map.put(cap.swap(2, 1, 0, 3), value);
-					map.put(cap.swap(2, 1, 3, 0), value);
-					map.put(cap.swap(2, 3, 0, 1), value);
-					map.put(cap.swap(2, 3, 1, 0), value);
-					map.put(cap.swap(3, 0, 1, 2), value);
-					map.put(cap.swap(3, 0, 2, 1), value);
-					map.put(cap.swap(3, 1, 0, 2), value);
-					map.put(cap.swap(3, 1, 2, 0), value);
-					map.put(cap.swap(3, 2, 1, 0), value);
-					map.put(cap.swap(3, 2, 0, 1), value);
-					break;
-				default:
-					throw Unimplemented.onPurpose(
-							"Solstice only supports Capabilities with at most 4 properties, this was "
-									+ cap.size()
-									+ "\n"
-									+ cap
-									+ " = "
-									+ value
-									+ ", see Capabilities javadoc for how to remove this limitation");
+			// copy so that later mutation of the argument can't corrupt the index
+			var copy = new Capability(cap.namespace);
+			copy.keyValue.addAll(cap.keyValue);
+			var entry = new Entry<>(copy, value);
+			var byKey = index.computeIfAbsent(copy.namespace, unused -> new ConcurrentHashMap<>());
+			for (int i = 0; i < copy.size(); ++i) {
+				var key = copy.keyValue.get(2 * i);
+				var val = copy.keyValue.get(2 * i + 1);
+				byKey
+						.computeIfAbsent(key, unused -> new ConcurrentHashMap<>())
+						.computeIfAbsent(val, unused -> new CopyOnWriteArrayList<>())
+						.add(entry);
 			}
+			entries.put(copy, entry);
 		}
 
-		/** Returns the first entry whose capability is a superset of the given argument. */
-		public T getAnySupersetOf(Capability cap) {
-			if (lookingForSupersetOf != null) {
-				throw new IllegalStateException();
+		/**
+		 * Returns an entry whose capability is a superset of the given argument, or null if there is no
+		 * such entry. When several match, the one whose pairs sort last wins, regardless of the order
+		 * in which they were added.
+		 */
+		public @Nullable T getAnySupersetOf(Capability cap) {
+			Entry<T> best = null;
+			for (var entry : candidatesFor(cap)) {
+				if (entry.cap.isSupersetOf(cap) && entry.winsOver(best)) {
+					best = entry;
+				}
 			}
-			lookingForSupersetOf = cap;
-			T value = map.get(cap);
-			lookingForSupersetOf = null;
-			return value;
+			return best == null ? null : best.value;
+		}
+
+		/** Calls the consumer on every entry whose capability is a superset of the given argument. */
+		public void forEachSupersetOf(Capability cap, Consumer<T> consumer) {
+			for (var entry : candidatesFor(cap)) {
+				if (entry.cap.isSupersetOf(cap)) {
+					consumer.accept(entry.value);
+				}
+			}
+		}
+
+		/** Entries in the same namespace which might be a superset, a superset of the real answer. */
+		private Iterable<Entry<T>> candidatesFor(Capability cap) {
+			var byKey = index.get(cap.namespace);
+			if (byKey == null) {
+				return List.of();
+			}
+			if (cap.size() == 0) {
+				var sameNamespace = new ArrayList<Entry<T>>();
+				for (var entry : entries.values()) {
+					if (entry.cap.namespace.equals(cap.namespace)) {
+						sameNamespace.add(entry);
+					}
+				}
+				return sameNamespace;
+			}
+			List<Entry<T>> shortest = null;
+			for (int i = 0; i < cap.size(); ++i) {
+				var byValue = byKey.get(cap.keyValue.get(2 * i));
+				var posting = byValue == null ? null : byValue.get(cap.keyValue.get(2 * i + 1));
+				if (posting == null) {
+					// no entry has this pair, so the intersection is empty
+					return List.of();
+				}
+				if (shortest == null || posting.size() < shortest.size()) {
+					shortest = posting;
+				}
+			}
+			return shortest;
 		}
 
 		@Override
 		public String toString() {
-			return toStringMap.toString();
+			var builder = new StringBuilder();
+			builder.append('{');
+			for (var entry : entries.values()) {
+				builder.append(entry.cap);
+				builder.append('=');
+				builder.append(entry.value);
+				builder.append(", ");
+			}
+			if (builder.length() > 1) {
+				builder.setLength(builder.length() - 2);
+			}
+			builder.append('}');
+			return builder.toString();
 		}
 	}
 
@@ -307,7 +322,7 @@ public class Capability implements Comparable<Capability> {
 
 		@Override
 		public String toString() {
-			return map.toStringMap.keySet().toString();
+			return map.entries.keySet().toString();
 		}
 	}
 }
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.osgi.framework.Bundle;
+
+/**
+ * Implements {@code Bundle-ActivationPolicy: lazy} for the shim: a lazy bundle is activated the
+ * first time one of its classes is loaded through {@link ShimBundle#loadClass(String)} or through
+ * the {@link ClassLoader} of its {@link org.osgi.framework.wiring.BundleWiring}. These are the
+ * paths used by the extension registry, Declarative Services, and e4 to instantiate classes from a
+ * bundle.
+ *
+ * <p>Everything still lives in a single classloader. {@link #classLoader} never defines a class, it
+ * only delegates and then looks at the code source of the result to find which bundle it came from,
+ * so it can't cause duplicate class definitions. The tradeoff is that a class which is reached by
+ * plain static linkage from another bundle doesn't trigger activation, which is what {@code
+ * Fudge.earlyStartupWorkaround} is for. To make up for it, activating a lazy bundle also activates
+ * its transitive dependencies, just like {@link Solstice#start(String)}.
+ *
+ * <p>Until then a deferred bundle is {@link Bundle#STARTING}, as the OSGi lazy activation policy
+ * specifies, so that extenders such as Declarative Services still process it.
+ */
+class LazyActivation {
+	/** Lazy bundles which haven't been activated yet, keyed by {@link SolsticeManifest#getJarUrl()}. */
+	private final Map<String, ShimBundle> unactivatedByJarUrl = new ConcurrentHashMap<>();
+
+	private final Consumer<SolsticeManifest> activate;
+
+	LazyActivation(Collection<ShimBundle> bundles, Consumer<SolsticeManifest> activate) {
+		this.activate = activate;
+		for (var bundle : bundles) {
+			if (bundle.manifest.isFragment() || !bundle.manifest.lazy) {
+				continue;
+			}
+			if (bundle.getState() != Bundle.RESOLVED) {
+				continue;
+			}
+			unactivatedByJarUrl.put(bundle.manifest.getJarUrl(), bundle);
+			// a class from a fragment activates its host
+			for (var fragment : bundle.manifest.fragments) {
+				unactivatedByJarUrl.put(fragment.getJarUrl(), bundle);
+			}
+		}
+	}
+
+	/** The bundles whose activation is deferred, without their fragments. */
+	Collection<ShimBundle> deferred() {
+		return new LinkedHashSet<>(unactivatedByJarUrl.values());
+	}
+
+	final ClassLoader classLoader =
+			new ClassLoader(LazyActivation.class.getClassLoader()) {
+				@Override
+				protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+					var clazz = getParent().loadClass(name);
+					onClassLoaded(clazz);
+					return clazz;
+				}
+			};
+
+	void onClassLoaded(Class<?> clazz) {
+		if (unactivatedByJarUrl.isEmpty()) {
+			return;
+		}
+		var source = clazz.getProtectionDomain().getCodeSource();
+		if (source == null || source.getLocation() == null) {
+			return;
+		}
+		var jarUrl = "jar:" + source.getLocation().toExternalForm() + "!";
+		var bundle = unactivatedByJarUrl.get(jarUrl);
+		if (bundle != null) {
+			// activate waits for an activation which another thread already began, see Solstice.activate
+			activate.accept(bundle.manifest);
+			unactivatedByJarUrl.remove(jarUrl);
+		}
+	}
+}
@@ -13,63 +13,107 @@
  *******************************************************************************/
 package dev.equo.solstice;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.function.Predicate;
 
 /**
- * A special list implementation optimized for ServiceRegistry listeners. It is backed by an
- * append-only ArrayList. "Removed" elements are simply nulled-out. This allows elements to be added
- * and removed during iteration without conflict, at the expense of a larger-than-necessary listener
- * list.
+ * A special list implementation optimized for ServiceRegistry listeners. It is copy-on-write, so
+ * iteration is lock-free and takes a snapshot, which means entries added after iteration started
+ * are not visited. Each element lives in a slot which gets nulled-out on removal, so an element
+ * removed during iteration is also skipped, even by iterators which started before the removal.
  *
- * <p>For an IDE with JDT, PDE, and GradleBuildship, the list reaches a length of 201 entries, with
- * 11 of the entries being null = 5% wastage. Not bad.
+ * <p>For an IDE with JDT, PDE, and GradleBuildship, the list reaches a length of 201 entries, so
+ * copying on every add is cheap compared to locking on every event.
  */
 class ListenerList<T> implements Iterable<T> {
-	private final ArrayList<T> backing = new ArrayList<>();
+	private static final class Slot<T> {
+		volatile T value;
+
+		Slot(T value) {
+			this.value = value;
+		}
+	}
+
+	private static final Slot<?>[] EMPTY = new Slot<?>[0];
+
+	private volatile Slot<T>[] backing = empty();
+
+	@SuppressWarnings("unchecked")
+	private static <T> Slot<T>[] empty() {
+		return (Slot<T>[]) EMPTY;
+	}
 
 	@Override
 	public Iterator<T> iterator() {
 		return new Iterator<>() {
+			final Slot<T>[] snapshot = backing;
 			int idx = 0;
-			// snapshot the backing size so that we don't iterate over entries which get added after we
-			// started
-			final int size = backing.size();
+			Slot<T> last;
+			T next;
 
 			@Override
 			public boolean hasNext() {
-				// bump idx until the backing array has a non-null value
-				while (idx < size && backing.get(idx) == null) {
-					++idx;
+				// bump idx until the snapshot has a non-removed value
+				while (next == null && idx < snapshot.length) {
+					last = snapshot[idx++];
+					next = last.value;
 				}
-				return idx < size;
+				return next != null;
 			}
 
 			@Override
 			public void remove() {
-				backing.set(idx - 1, null);
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				Slot<T> toRemove = last;
+				ListenerList.this.removeSlots(slot -> slot == toRemove);
 			}
 
 			@Override
 			public T next() {
-				return Objects.requireNonNull(backing.get(idx++));
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				T result = next;
+				next = null;
+				return result;
 			}
 		};
 	}
 
-	public boolean add(T e) {
-		backing.add(Objects.requireNonNull(e));
+	public synchronized boolean add(T e) {
+		var grown = Arrays.copyOf(backing, backing.length + 1);
+		grown[grown.length - 1] = new Slot<>(Objects.requireNonNull(e));
+		backing = grown;
 		return true;
 	}
 
 	public void removeIf(Predicate<T> removeIf) {
-		for (int i = 0; i < backing.size(); ++i) {
-			var e = backing.get(i);
-			if (e != null && removeIf.test(e)) {
-				backing.set(i, null);
+		removeSlots(
+				slot -> {
+					T value = slot.value;
+					return value != null && removeIf.test(value);
+				});
+	}
+
+	private synchronized void removeSlots(Predicate<Slot<T>> toRemove) {
+		var current = backing;
+		@SuppressWarnings("unchecked")
+		Slot<T>[] kept = new Slot[current.length];
+		int size = 0;
+		for (var slot : current) {
+			if (toRemove.test(slot)) {
+				slot.value = null;
+			} else {
+				kept[size++] = slot;
 			}
 		}
+		if (size != current.length) {
+			backing = Arrays.copyOf(kept, size);
+		}
 	}
 }
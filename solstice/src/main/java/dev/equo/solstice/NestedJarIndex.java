@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A persistent index of the nested jars which have already been extracted into a folder, so that
+ * an unchanged parent jar costs two file stats instead of reading and hashing every nested jar
+ * inside it. Entries are keyed by the nested jar's url, and remember the size and timestamp of the
+ * parent jar they were extracted from, so a changed parent jar is a miss.
+ *
+ * <p>Several builds and IDEs may share the folder, so saving merges this instance's entries into
+ * the index on disk while holding a file lock. Extracting a jar again replaces its entry, but an
+ * IDE which was launched with the old extraction may still be reading it, so the old one is only
+ * deleted once it has gone unreferenced for {@link #STALE_GRACE_DAYS}.
+ */
+class NestedJarIndex {
+	private static final String FILENAME = "index.properties";
+	private static final String LOCK = "index.lock";
+	/** Keys of extractions which no entry points to anymore, valued by when that started. */
+	private static final String STALE = "stale:";
+
+	static final long STALE_GRACE_DAYS = 7;
+
+	/** A {@link FileChannel#lock()} is per-process, so threads within a process need this too. */
+	private static final Object LOCK_MONITOR = new Object();
+
+	private final File folder;
+	private final Properties index;
+	/** Entries which this instance added, to merge into the index on disk. */
+	private final Map<String, String> added = new HashMap<>();
+	/** Filenames which a replaced entry pointed to, which may have become stale. */
+	private final Set<String> replaced = new HashSet<>();
+
+	NestedJarIndex(File folder) {
+		this.folder = folder;
+		this.index = load(new File(folder, FILENAME));
+	}
+
+	private static Properties load(File file) {
+		var index = new Properties();
+		if (file.isFile()) {
+			try (var input = new FileInputStream(file)) {
+				index.load(input);
+			} catch (IOException | IllegalArgumentException e) {
+				// a corrupt index is just an empty one
+				index.clear();
+			}
+		}
+		// entries from before the index was keyed by url alone are just misses
+		index
+				.entrySet()
+				.removeIf(
+						entry ->
+								!entry.getKey().toString().startsWith(STALE)
+										&& entry.getValue().toString().split(" ", 3).length != 3);
+		return index;
+	}
+
+	/** Returns the already-extracted file for this nested jar, or null if it needs extracting. */
+	synchronized @Nullable File get(URL nestedJar) {
+		var stamp = parentStamp(nestedJar);
+		if (stamp == null) {
+			return null;
+		}
+		var value = index.getProperty(nestedJar.toExternalForm());
+		if (value == null) {
+			return null;
+		}
+		var parts = value.split(" ", 3);
+		if (!parts[0].equals(stamp)) {
+			return null;
+		}
+		var extracted = new File(folder, parts[2]);
+		if (extracted.length() != Long.parseLong(parts[1])) {
+			return null;
+		}
+		return extracted;
+	}
+
+	synchronized void put(URL nestedJar, File extracted) {
+		var stamp = parentStamp(nestedJar);
+		if (stamp == null) {
+			return;
+		}
+		var value = stamp + " " + extracted.length() + " " + extracted.getName();
+		var previous = (String) index.setProperty(nestedJar.toExternalForm(), value);
+		if (previous != null) {
+			var previousName = previous.split(" ", 3)[2];
+			if (!previousName.equals(extracted.getName())) {
+				replaced.add(previousName);
+			}
+		}
+		added.put(nestedJar.toExternalForm(), value);
+	}
+
+	/**
+	 * If anything was added, merges it into the index on disk and replaces that atomically, all while
+	 * holding the folder's lock. Extractions which have gone unreferenced for longer than {@link
+	 * #STALE_GRACE_DAYS} are deleted at the same time.
+	 */
+	synchronized void saveIfChanged() throws IOException {
+		if (added.isEmpty()) {
+			return;
+		}
+		Files.createDirectories(folder.toPath());
+		synchronized (LOCK_MONITOR) {
+			try (var lockChannel =
+							FileChannel.open(
+									new File(folder, LOCK).toPath(),
+									StandardOpenOption.CREATE,
+									StandardOpenOption.WRITE);
+					var lock = lockChannel.lock()) {
+				var file = new File(folder, FILENAME);
+				var merged = load(file);
+				merged.putAll(added);
+				collectStale(merged);
+				var temp = File.createTempFile(FILENAME, ".tmp", folder);
+				try {
+					try (var output = new FileOutputStream(temp)) {
+						merged.store(output, null);
+					}
+					Files.move(
+							temp.toPath(),
+							file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(temp.toPath());
+				}
+				index.clear();
+				index.putAll(merged);
+			}
+		}
+		added.clear();
+		replaced.clear();
+	}
+
+	/**
+	 * Marks the extractions which this instance replaced as stale, unmarks the ones which an entry
+	 * points to again, and deletes the ones which have been stale for long enough.
+	 */
+	private void collectStale(Properties merged) {
+		var referenced = new HashSet<String>();
+		for (var key : merged.stringPropertyNames()) {
+			if (!key.startsWith(STALE)) {
+				referenced.add(merged.getProperty(key).split(" ", 3)[2]);
+			}
+		}
+		long now = System.currentTimeMillis();
+		for (var name : replaced) {
+			merged.putIfAbsent(STALE + name, Long.toString(now));
+		}
+		long graceMs = TimeUnit.DAYS.toMillis(STALE_GRACE_DAYS);
+		for (var key : merged.stringPropertyNames()) {
+			if (!key.startsWith(STALE)) {
+				continue;
+			}
+			var name = key.substring(STALE.length());
+			if (referenced.contains(name)) {
+				merged.remove(key);
+				continue;
+			}
+			long since;
+			try {
+				since = Long.parseLong(merged.getProperty(key));
+			} catch (NumberFormatException e) {
+				since = now;
+			}
+			if (now - since > graceMs) {
+				try {
+					Files.deleteIfExists(new File(folder, name).toPath());
+					merged.remove(key);
+				} catch (IOException e) {
+					// still open somewhere (e.g. on Windows), try again on a later save
+				}
+			}
+		}
+	}
+
+	/** Null if we can't tell which file the nested jar lives inside. */
+	private static @Nullable String parentStamp(URL nestedJar) {
+		var parent = parentFile(nestedJar);
+		if (parent == null || !parent.isFile()) {
+			return null;
+		}
+		return parent.length() + "-" + parent.lastModified();
+	}
+
+	private static @Nullable File parentFile(URL url) {
+		try {
+			var externalForm = url.toExternalForm();
+			if (externalForm.startsWith("jar:")) {
+				int bang = externalForm.indexOf("!/");
+				if (bang == -1) {
+					return null;
+				}
+				url = new URL(externalForm.substring("jar:".length(), bang));
+			}
+			if (!"file".equals(url.getProtocol())) {
+				return null;
+			}
+			return new File(url.toURI());
+		} catch (IOException | URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
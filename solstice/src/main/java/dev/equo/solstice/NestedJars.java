@@ -23,6 +23,9 @@ import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -33,10 +36,12 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.slf4j.LoggerFactory;
@@ -74,14 +79,34 @@ public abstract class NestedJars {
 	 */
 	public static Collection<String> transitiveDeps(
 			boolean useAtomos, CoordFormat format, P2QueryResult query) {
+		if (query == null) {
+			return transitiveDeps(useAtomos, format, null, null);
+		} else {
+			return transitiveDeps(
+					useAtomos,
+					format,
+					query.getJarsOnMavenCentral(),
+					query.getJarsNotOnMavenCentralDestinations());
+		}
+	}
+
+	/**
+	 * Returns the full maven coordinates of Solstice's transitive dependencies in
+	 * `group:artifact:version` form, given the maven coordinates and p2 jars which a query resolved
+	 * to (both null if there was no query).
+	 */
+	public static Collection<String> transitiveDeps(
+			boolean useAtomos,
+			CoordFormat format,
+			Collection<String> jarsOnMavenCentral,
+			Collection<File> jarsNotOnMavenCentral) {
 		boolean needsApi = true;
 		boolean needsSimple = true;
 		boolean slf4j_is_2 = false;
-		if (query != null) {
+		if (jarsOnMavenCentral != null) {
 			var iter =
 					Stream.concat(
-									query.getJarsOnMavenCentral().stream(),
-									query.getJarsNotOnMavenCentral().stream().map(File::getName))
+									jarsOnMavenCentral.stream(), jarsNotOnMavenCentral.stream().map(File::getName))
 							.iterator();
 			while (iter.hasNext()) {
 				String name = iter.next();
@@ -138,8 +163,7 @@ public abstract class NestedJars {
 	private static final Attributes.Name CLASSPATH = new Attributes.Name("Bundle-ClassPath");
 
 	private static void addNestedJarsFromManifest(
-			List<URL> nestedJars, String jarUrl, InputStream stream) throws IOException {
-		Manifest manifest = new Manifest(stream);
+			List<URL> nestedJars, String jarUrl, Manifest manifest) {
 		var cp = manifest.getMainAttributes().getValue(CLASSPATH);
 		if (cp != null) {
 			var lines = cp.split(",");
@@ -168,6 +192,9 @@ public abstract class NestedJars {
 	public static class OnClassPath extends NestedJars {
 		private OnClassPath() {}
 
+		/** The `jar:file:...!` url of every jar on the classpath which has a manifest. */
+		private final Set<String> jarUrlsOnClasspath = new HashSet<>();
+
 		@Override
 		protected List<URL> listNestedJars() {
 			var nestedJars = new ArrayList<URL>();
@@ -179,8 +206,9 @@ public abstract class NestedJars {
 				var fullUrl = manifestUrl.toExternalForm();
 				var jarUrl =
 						fullUrl.substring(0, fullUrl.length() - SolsticeManifest.SLASH_MANIFEST_PATH.length());
+				jarUrlsOnClasspath.add(jarUrl);
 				try (InputStream stream = manifestUrl.openStream()) {
-					addNestedJarsFromManifest(nestedJars, jarUrl, stream);
+					addNestedJarsFromManifest(nestedJars, jarUrl, new Manifest(stream));
 				} catch (IOException e) {
 					throw Unchecked.wrap(e);
 				}
@@ -196,10 +224,16 @@ public abstract class NestedJars {
 			entries.removeIf(
 					entry -> {
 						if (entry.getValue().exists()) {
+							String targetPrefix = "jar:" + entry.getValue().toURI() + "!";
+							String targetPrefixStripped =
+									"jar:" + SignedJars.strippedFile(entry.getValue()).toURI() + "!";
+							if (jarUrlsOnClasspath.contains(targetPrefix)
+									|| jarUrlsOnClasspath.contains(targetPrefixStripped)) {
+								nestedJarsOnClasspath.add(entry.getValue());
+								return true;
+							}
+							// a nested jar without a manifest has to be found by its content
 							try (var jarFile = new JarFile(entry.getValue())) {
-								String targetPrefix = "jar:" + entry.getValue().toURI() + "!";
-								String targetPrefixStripped =
-										"jar:" + SignedJars.strippedFile(entry.getValue()).toURI() + "!";
 								var firstResource = jarFile.entries().nextElement().getName();
 								var onTheClasspath = NestedJars.class.getClassLoader().getResources(firstResource);
 								while (onTheClasspath.hasMoreElements()) {
@@ -264,7 +298,7 @@ public abstract class NestedJars {
 						if (zipEntry != null) {
 							var jarUrl = "jar:" + file.toURI().toURL().toExternalForm() + "!";
 							try (var input = jarFile.getInputStream(zipEntry)) {
-								addNestedJarsFromManifest(nestedJars, jarUrl, input);
+								addNestedJarsFromManifest(nestedJars, jarUrl, new Manifest(input));
 							}
 						}
 					} catch (IOException e) {
@@ -276,6 +310,27 @@ public abstract class NestedJars {
 		};
 	}
 
+	/**
+	 * Returns the nested jars declared by the {@code Bundle-ClassPath} of a manifest which has
+	 * already been read from the given jar, for use with {@link #inUrls(List)}.
+	 */
+	public static List<URL> declaredIn(File jar, Manifest manifest) {
+		var nestedJars = new ArrayList<URL>();
+		var jarUrl = "jar:" + Unchecked.get(() -> jar.toURI().toURL()).toExternalForm() + "!";
+		addNestedJarsFromManifest(nestedJars, jarUrl, manifest);
+		return nestedJars;
+	}
+
+	/** Nested jars which have already been listed, e.g. by {@link #declaredIn(File, Manifest)}. */
+	public static NestedJars inUrls(List<URL> nestedJars) {
+		return new NestedJars() {
+			@Override
+			protected List<URL> listNestedJars() {
+				return nestedJars;
+			}
+		};
+	}
+
 	protected abstract List<URL> listNestedJars();
 
 	/** Extracts nested jars into {@link dev.equo.solstice.p2.CacheLocations#p2nestedJars()}. */
@@ -283,51 +338,87 @@ public abstract class NestedJars {
 		return extractAllNestedJars(CacheLocations.p2nestedJars());
 	}
 
+	/**
+	 * Extracts every nested jar into the given folder, in parallel. Jars which were already extracted
+	 * from an unchanged parent jar are found in the folder's {@link NestedJarIndex} without being
+	 * read at all.
+	 */
 	public List<Map.Entry<URL, File>> extractAllNestedJars(File nestedJarFolder) {
-		var files = new ArrayList<Map.Entry<URL, File>>();
-		for (var url : listNestedJars()) {
-			int lastExclamation = url.getPath().indexOf('!');
-			int slashBeforeThat = url.getPath().lastIndexOf('/', lastExclamation);
-			try {
-				files.add(
-						extractNestedJar(
-								url.getPath().substring(slashBeforeThat + 1, lastExclamation),
-								url,
-								nestedJarFolder));
-			} catch (FileNotFoundException e) {
-				LoggerFactory.getLogger(NestedJars.class).warn("Missing nested jar: " + url.getPath());
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+		var index = new NestedJarIndex(nestedJarFolder);
+		var files =
+				listNestedJars().parallelStream()
+						.map(url -> extractNestedJar(url, nestedJarFolder, index))
+						.filter(Objects::nonNull)
+						.collect(Collectors.toCollection(ArrayList::new));
+		try {
+			index.saveIfChanged();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 		files.sort(Comparator.comparing(e -> e.getKey().getPath()));
 		return files;
 	}
 
+	private static @Nullable Map.Entry<URL, File> extractNestedJar(
+			URL url, File nestedJarFolder, NestedJarIndex index) {
+		var alreadyExtracted = index.get(url);
+		if (alreadyExtracted != null) {
+			return Map.entry(url, alreadyExtracted);
+		}
+		int lastExclamation = url.getPath().indexOf('!');
+		int slashBeforeThat = url.getPath().lastIndexOf('/', lastExclamation);
+		try {
+			var entry =
+					extractNestedJar(
+							url.getPath().substring(slashBeforeThat + 1, lastExclamation),
+							url,
+							nestedJarFolder);
+			index.put(url, entry.getValue());
+			return entry;
+		} catch (FileNotFoundException e) {
+			LoggerFactory.getLogger(NestedJars.class).warn("Missing nested jar: " + url.getPath());
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private static boolean warnOnly = false;
 
 	public static void setToWarnOnly() {
 		warnOnly = true;
 	}
 
+	/**
+	 * Streams the nested jar into a temp file while hashing it, then moves it to a filename which
+	 * includes the hash, so the content is never held in memory.
+	 */
 	private static Map.Entry<URL, File> extractNestedJar(
 			String parentJar, URL entry, File nestedJarFolder) throws IOException {
-		try (var toRead = entry.openStream()) {
-			var content = toRead.readAllBytes();
-
-			var jarPath = entry.getPath();
-			var lastSep = Math.max(jarPath.lastIndexOf('!'), jarPath.lastIndexOf('/'));
-			var jarSimpleName = jarPath.substring(lastSep + 1);
+		var jarPath = entry.getPath();
+		var lastSep = Math.max(jarPath.lastIndexOf('!'), jarPath.lastIndexOf('/'));
+		var jarSimpleName = jarPath.substring(lastSep + 1);
 
-			var filename = parentJar + "__" + jarSimpleName + "__" + filenameSafeHash(content) + ".jar";
+		Files.createDirectories(nestedJarFolder.toPath());
+		var temp = File.createTempFile(jarSimpleName, ".tmp", nestedJarFolder);
+		try {
+			MessageDigest md5 = md5();
+			try (var toRead = new DigestInputStream(entry.openStream(), md5);
+					var output = new FileOutputStream(temp)) {
+				toRead.transferTo(output);
+			}
+			var filename = parentJar + "__" + jarSimpleName + "__" + filenameSafe(md5) + ".jar";
 			var jarToAdd = new File(nestedJarFolder, filename);
-			if (!jarToAdd.exists() || jarToAdd.length() != content.length) {
-				nestedJarFolder.mkdirs();
-				try (var output = new FileOutputStream(jarToAdd)) {
-					output.write(content);
-				}
+			if (!jarToAdd.exists() || jarToAdd.length() != temp.length()) {
+				Files.move(
+						temp.toPath(),
+						jarToAdd.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
 			}
 			return Map.entry(entry, jarToAdd);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
 		}
 	}
 
@@ -336,14 +427,22 @@ public abstract class NestedJars {
 	}
 
 	static String filenameSafeHash(byte[] content) {
+		MessageDigest md5 = md5();
+		md5.update(content);
+		return filenameSafe(md5);
+	}
+
+	private static MessageDigest md5() {
 		try {
-			MessageDigest md5 = MessageDigest.getInstance("MD5");
-			md5.update(content);
-			String encoded =
-					new String(Base64.getEncoder().encode(md5.digest()), StandardCharsets.US_ASCII);
-			return encoded.replace('/', '-').replace('=', '-');
+			return MessageDigest.getInstance("MD5");
 		} catch (NoSuchAlgorithmException e) {
 			throw Unchecked.wrap(e);
 		}
 	}
+
+	private static String filenameSafe(MessageDigest digest) {
+		String encoded =
+				new String(Base64.getEncoder().encode(digest.digest()), StandardCharsets.US_ASCII);
+		return encoded.replace('/', '-').replace('=', '-');
+	}
 }
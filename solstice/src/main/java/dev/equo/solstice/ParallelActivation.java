@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+
+/**
+ * Activates a list of bundles concurrently while respecting their dependencies. The list must be in
+ * a valid serial activation order (as computed by {@link Solstice}), and a bundle only waits for
+ * the bundles it depends on which come before it in that list. Dependencies which come after it are
+ * cycles, which the serial order doesn't respect either.
+ */
+class ParallelActivation {
+	private final List<SolsticeManifest> order;
+	private final boolean[] onCallingThread;
+	/** For each bundle, the indices of the bundles it depends on. */
+	private final int[][] dependencies;
+	/** For each bundle, the indices of the bundles which depend on it. */
+	private final List<List<Integer>> dependents;
+	private final Map<SolsticeManifest, Integer> indices = new HashMap<>();
+
+	private final Logger logger;
+
+	ParallelActivation(
+			List<SolsticeManifest> order, Collection<String> onCallingThread, Logger logger) {
+		this.order = order;
+		this.logger = logger;
+		this.onCallingThread = new boolean[order.size()];
+		this.dependencies = new int[order.size()][];
+		this.dependents = new ArrayList<>(order.size());
+		this.claimedBy = new Thread[order.size()];
+		this.finished = new boolean[order.size()];
+		this.durations = new long[order.size()];
+		this.failures = new Throwable[order.size()];
+
+		Map<String, List<Integer>> byPkg = new HashMap<>();
+		Map<String, List<Integer>> bySymbolicName = new HashMap<>();
+		Map<Capability, List<Integer>> byCap = new HashMap<>();
+		var capIndex = new Capability.SupersetMap<List<Integer>>();
+		for (int i = 0; i < order.size(); ++i) {
+			var manifest = order.get(i);
+			indices.put(manifest, i);
+			this.onCallingThread[i] = onCallingThread.contains(manifest.getSymbolicName());
+			this.dependents.add(new ArrayList<>());
+
+			var deps = new ArrayList<Integer>();
+			for (var pkg : manifest.totalPkgImports()) {
+				addAllIfAbsent(deps, byPkg.get(pkg));
+			}
+			for (var required : manifest.totalRequiredBundles()) {
+				addAllIfAbsent(deps, bySymbolicName.get(required));
+			}
+			for (var cap : manifest.capRequires) {
+				capIndex.forEachSupersetOf(cap, providers -> addAllIfAbsent(deps, providers));
+			}
+			dependencies[i] = deps.stream().mapToInt(Integer::intValue).toArray();
+			for (int dep : dependencies[i]) {
+				dependents.get(dep).add(i);
+			}
+
+			// register this bundle only now, so that edges only ever point backwards
+			for (var pkg : manifest.totalPkgExports()) {
+				byPkg.computeIfAbsent(pkg, unused -> new ArrayList<>()).add(i);
+			}
+			bySymbolicName
+					.computeIfAbsent(manifest.getSymbolicName(), unused -> new ArrayList<>())
+					.add(i);
+			for (var cap : manifest.capProvides) {
+				var providers = byCap.get(cap);
+				if (providers == null) {
+					providers = new ArrayList<>();
+					byCap.put(cap, providers);
+					capIndex.put(cap, providers);
+				}
+				providers.add(i);
+			}
+		}
+	}
+
+	private static void addAllIfAbsent(List<Integer> deps, List<Integer> toAdd) {
+		if (toAdd != null) {
+			for (var dep : toAdd) {
+				if (!deps.contains(dep)) {
+					deps.add(dep);
+				}
+			}
+		}
+	}
+
+	/** Whether the given bundle is part of this activation. */
+	boolean contains(SolsticeManifest manifest) {
+		return indices.containsKey(manifest);
+	}
+
+	/** The thread which constructs this and then calls {@link #run}. */
+	private final Thread callingThread = Thread.currentThread();
+
+	// everything below is guarded by `lock`, and `lock.notifyAll()` is called whenever it changes
+	private final Object lock = new Object();
+	/** The thread which activates each bundle, null until one claims it. */
+	private final Thread[] claimedBy;
+	private final boolean[] finished;
+	/** Finished bundles which {@link #run} hasn't taken yet. */
+	private final ArrayDeque<Integer> newlyFinished = new ArrayDeque<>();
+	private final long[] durations;
+	private final Throwable[] failures;
+	private @Nullable Solstice.Waiter waiter;
+	private boolean runIsOver;
+
+	/**
+	 * Activates the given bundle and its dependencies, for a bundle which is needed before the pool
+	 * gets to it. Bundles which must be activated on the calling thread, or which another thread has
+	 * already begun, are waited for instead. {@code activate} must do nothing for a bundle whose
+	 * activation has already begun, or wait for it if it began on another thread.
+	 */
+	void activateNow(SolsticeManifest manifest, Consumer<SolsticeManifest> activate) {
+		activateNow(indices.get(manifest), activate, new BitSet(order.size()));
+	}
+
+	private void activateNow(int idx, Consumer<SolsticeManifest> activate, BitSet visited) {
+		if (visited.get(idx)) {
+			return;
+		}
+		visited.set(idx);
+		for (int dep : dependencies[idx]) {
+			activateNow(dep, activate, visited);
+		}
+		boolean mayActivateHere = !onCallingThread[idx] || Thread.currentThread() == callingThread;
+		if (mayActivateHere && claim(idx)) {
+			var failure = activateClaimed(idx, activate);
+			if (failure != null) {
+				throw rethrow(order.get(idx), failure);
+			}
+		} else if (!awaitFinished(idx)) {
+			// the run ended without getting to it, so there's nobody left to wait for
+			activate.accept(order.get(idx));
+		}
+	}
+
+	private boolean claim(int idx) {
+		synchronized (lock) {
+			if (claimedBy[idx] != null) {
+				return false;
+			}
+			claimedBy[idx] = Thread.currentThread();
+			return true;
+		}
+	}
+
+	/** Activates a bundle which this thread has claimed, and returns what it threw, if anything. */
+	private @Nullable Throwable activateClaimed(int idx, Consumer<SolsticeManifest> activate) {
+		long start = System.nanoTime();
+		Throwable failure = null;
+		try {
+			activate.accept(order.get(idx));
+		} catch (Throwable e) {
+			failure = e;
+		}
+		Solstice.Waiter toWake;
+		synchronized (lock) {
+			durations[idx] = System.nanoTime() - start;
+			failures[idx] = failure;
+			finished[idx] = true;
+			newlyFinished.add(idx);
+			lock.notifyAll();
+			toWake = waiter;
+		}
+		if (toWake != null) {
+			toWake.wake();
+		}
+		return failure;
+	}
+
+	/**
+	 * Waits until the given bundle has finished, unless this thread is the one activating it. Returns
+	 * false if the run ended before the bundle was activated.
+	 */
+	private boolean awaitFinished(int idx) {
+		synchronized (lock) {
+			try {
+				while (!finished[idx] && claimedBy[idx] != Thread.currentThread()) {
+					if (runIsOver) {
+						return false;
+					}
+					lock.wait();
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw Unchecked.wrap(e);
+			}
+		}
+	}
+
+	/**
+	 * Activates every bundle, blocking until they have all been activated. Must be called on the
+	 * thread which constructed this. While the calling thread has nothing to activate, it waits
+	 * with {@code waiter} if it isn't null. The first {@link Error} or exception which escapes {@code
+	 * activate} is rethrown here.
+	 */
+	void run(int threads, Consumer<SolsticeManifest> activate, @Nullable Solstice.Waiter waiter) {
+		if (Thread.currentThread() != callingThread) {
+			throw new IllegalStateException("Must run on the thread which planned the activation");
+		}
+		if (order.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		synchronized (lock) {
+			this.waiter = waiter;
+		}
+		int[] remaining = new int[order.size()];
+		var readyOnCallingThread = new ArrayDeque<Integer>();
+
+		var threadCount = new AtomicInteger();
+		ExecutorService pool =
+				Executors.newFixedThreadPool(
+						threads,
+						runnable -> {
+							var thread =
+									new Thread(runnable, "solstice-activation-" + threadCount.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						});
+		Consumer<Integer> schedule =
+				idx -> {
+					if (onCallingThread[idx]) {
+						readyOnCallingThread.add(idx);
+					} else {
+						pool.execute(
+								() -> {
+									// a bundle which activateNow got to first is reported by that thread
+									if (claim(idx)) {
+										activateClaimed(idx, activate);
+									}
+								});
+					}
+				};
+		try {
+			for (int i = 0; i < order.size(); ++i) {
+				remaining[i] = dependencies[i].length;
+				if (remaining[i] == 0) {
+					schedule.accept(i);
+				}
+			}
+			for (int numFinished = 0; numFinished < order.size(); ++numFinished) {
+				int idx = takeFinished(readyOnCallingThread, activate);
+				if (failures[idx] != null) {
+					throw rethrow(order.get(idx), failures[idx]);
+				}
+				for (int dependent : dependents.get(idx)) {
+					if (--remaining[dependent] == 0) {
+						schedule.accept(dependent);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Unchecked.wrap(e);
+		} finally {
+			pool.shutdown();
+			synchronized (lock) {
+				this.waiter = null;
+				runIsOver = true;
+				lock.notifyAll();
+			}
+		}
+		// every bundle was taken from `newlyFinished` under the lock, after its duration was written
+		logCriticalPath(durations, threads, System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the next bundle to finish, activating the bundles which are ready to run on the calling
+	 * thread in the meantime. Blocks on the lock, or on {@link #waiter} if there is one, until
+	 * another thread reports that it finished a bundle.
+	 */
+	private int takeFinished(
+			ArrayDeque<Integer> readyOnCallingThread, Consumer<SolsticeManifest> activate)
+			throws InterruptedException {
+		while (true) {
+			Solstice.Waiter waitWith;
+			synchronized (lock) {
+				var idx = newlyFinished.poll();
+				if (idx != null) {
+					return idx;
+				}
+				waitWith = waiter;
+				if (readyOnCallingThread.isEmpty() && waitWith == null) {
+					lock.wait();
+					continue;
+				}
+			}
+			if (!readyOnCallingThread.isEmpty()) {
+				int idx = readyOnCallingThread.remove();
+				if (claim(idx)) {
+					activateClaimed(idx, activate);
+				}
+			} else {
+				waitWith.await();
+			}
+		}
+	}
+
+	private static RuntimeException rethrow(SolsticeManifest manifest, Throwable failure) {
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else {
+			throw new RuntimeException("Error activating " + manifest, failure);
+		}
+	}
+
+	/**
+	 * The critical path is the chain of dependent activations with the longest total duration, which
+	 * is a lower bound on activation time no matter how many threads are available.
+	 */
+	private void logCriticalPath(long[] durations, int threads, long wallNanos) {
+		long[] pathDuration = new long[order.size()];
+		int[] pathPrevious = new int[order.size()];
+		int end = 0;
+		for (int i = 0; i < order.size(); ++i) {
+			pathPrevious[i] = -1;
+			for (int dep : dependencies[i]) {
+				if (pathPrevious[i] == -1 || pathDuration[dep] > pathDuration[pathPrevious[i]]) {
+					pathPrevious[i] = dep;
+				}
+			}
+			pathDuration[i] = durations[i] + (pathPrevious[i] == -1 ? 0 : pathDuration[pathPrevious[i]]);
+			if (pathDuration[i] > pathDuration[end]) {
+				end = i;
+			}
+		}
+		var path = new ArrayDeque<String>();
+		for (int idx = end; idx != -1; idx = pathPrevious[idx]) {
+			path.addFirst(order.get(idx).getSymbolicName() + " (" + millis(durations[idx]) + "ms)");
+		}
+		logger.info(
+				"activated {} bundles on {} threads in {}ms, critical path {}ms: {}",
+				order.size(),
+				threads,
+				millis(wallNanos),
+				millis(pathDuration[end]),
+				String.join(" -> ", path));
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1_000_000;
+	}
+}
@@ -13,6 +13,7 @@
  *******************************************************************************/
 package dev.equo.solstice;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -36,17 +37,32 @@ public class SerializableMisc {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T> T fromFile(Class<T> clazz, File file) {
-		try (InputStream fileStream = new FileInputStream(file);
-				ObjectInputStream objectStream = new ObjectInputStream(fileStream)) {
+		try (InputStream fileStream = new FileInputStream(file)) {
+			return fromStream(clazz, fileStream);
+		} catch (IOException e) {
+			throw Unchecked.wrap(e);
+		}
+	}
+
+	public static <T> T fromBytes(Class<T> clazz, byte[] bytes) {
+		try (InputStream byteStream = new ByteArrayInputStream(bytes)) {
+			return fromStream(clazz, byteStream);
+		} catch (IOException e) {
+			throw Unchecked.wrap(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fromStream(Class<T> clazz, InputStream stream) throws IOException {
+		try (ObjectInputStream objectStream = new ObjectInputStream(stream)) {
 			Object obj = objectStream.readObject();
 			if (clazz.isInstance(obj)) {
 				return (T) obj;
 			} else {
 				throw new IllegalArgumentException("Expected " + clazz + " but was " + obj.getClass());
 			}
-		} catch (IOException | ClassNotFoundException e) {
+		} catch (ClassNotFoundException e) {
 			throw Unchecked.wrap(e);
 		}
 	}
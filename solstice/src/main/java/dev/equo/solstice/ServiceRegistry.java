@@ -17,14 +17,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import org.eclipse.osgi.framework.log.FrameworkLog;
 import org.eclipse.osgi.internal.framework.BundleContextImpl;
 import org.eclipse.osgi.internal.framework.EquinoxBundle;
@@ -49,6 +53,14 @@ import org.slf4j.LoggerFactory;
  * href=https://github.com/eclipse-equinox/equinox/blob/db101f974f02a52383b4a8358f74aee4fa33e837/bundles/org.eclipse.osgi/container/src/org/eclipse/osgi/internal/log/LogServiceManager.java#L78">
  * LogServiceManager</a>. If we can't pass that instance check, then we have to reimplement the
  * logging ourselves, and that's a pain.
+ *
+ * <p>The registry is safe to use from many threads at once. Each class has its own copy-on-write
+ * list of services, so lookups never lock, and registrations for different classes never contend.
+ * Listeners are notified synchronously on the thread which changed the service, but without holding
+ * any registry lock, so a listener which blocks on another thread can't deadlock the registry.
+ * Services are returned in registration order, and a {@link ServiceEvent#REGISTERED} event is only
+ * delivered after the service is visible to lookups, and {@link ServiceEvent#UNREGISTERING} before
+ * it is removed.
  */
 abstract class ServiceRegistry extends BundleContextImpl {
 	ServiceRegistry(EquinoxBundle bundle, EquinoxContainer container) {
@@ -56,7 +68,7 @@ abstract class ServiceRegistry extends BundleContextImpl {
 	}
 
 	private final Logger logger = LoggerFactory.getLogger(ServiceRegistry.class);
-	final Map<String, List<AbstractServiceReference<?>>> services = new HashMap<>();
+	final Map<String, List<AbstractServiceReference<?>>> services = new ConcurrentHashMap<>();
 
 	protected abstract Bundle systemBundle();
 
@@ -75,7 +87,14 @@ abstract class ServiceRegistry extends BundleContextImpl {
 	}
 
 	@Override
-	public synchronized ServiceRegistration<?> registerService(
+	public ServiceRegistration<?> registerService(
+			String[] clazzes, Object service, Dictionary<String, ?> properties) {
+		try (var span = StartupProfiler.span("service", ",", clazzes)) {
+			return registerServiceProfiled(clazzes, service, properties);
+		}
+	}
+
+	private ServiceRegistration<?> registerServiceProfiled(
 			String[] clazzes, Object service, Dictionary<String, ?> properties) {
 		logger.debug(
 				"{} implemented by service {} with {}",
@@ -90,8 +109,9 @@ abstract class ServiceRegistry extends BundleContextImpl {
 			newService = new ShimServiceReference<>(service, clazzes, properties);
 		}
 		for (String clazz : clazzes) {
-			services.computeIfAbsent(clazz, k -> new ArrayList<>()).add(newService);
+			services.computeIfAbsent(clazz, k -> new CopyOnWriteArrayList<>()).add(newService);
 		}
+		servicesChanged(clazzes);
 		notifyListeners(ServiceEvent.REGISTERED, newService);
 		return newService.registration;
 	}
@@ -128,30 +148,80 @@ abstract class ServiceRegistry extends BundleContextImpl {
 		return builder.toString();
 	}
 
-	private final ListenerList<ListenerEntry> serviceListeners = new ListenerList<>();
+	/**
+	 * Listeners whose filter requires a specific objectClass are indexed by it, so that an event only
+	 * gets tested against the listeners which can possibly match. Listeners with no filter, or a
+	 * filter which doesn't pin down an objectClass, go into {@link #unindexedListeners}.
+	 */
+	private final Map<String, ListenerList<ListenerEntry>> listenersByObjectClass =
+			new ConcurrentHashMap<>();
+
+	private final ListenerList<ListenerEntry> unindexedListeners = new ListenerList<>();
+	private final AtomicLong listenerOrder = new AtomicLong();
 
 	@Override
-	public synchronized void removeServiceListener(ServiceListener listener) {
-		serviceListeners.removeIf(entry -> entry.listener == listener);
+	public void removeServiceListener(ServiceListener listener) {
+		Predicate<ListenerEntry> isListener =
+				entry -> {
+					if (entry.listener == listener) {
+						entry.removed = true;
+						return true;
+					} else {
+						return false;
+					}
+				};
+		unindexedListeners.removeIf(isListener);
+		for (var bucket : listenersByObjectClass.values()) {
+			bucket.removeIf(isListener);
+		}
 	}
 
 	@Override
-	public final synchronized void addServiceListener(ServiceListener listener, String filter) {
+	public final void addServiceListener(ServiceListener listener, String filter) {
 		logger.debug("add listener {} with {}", listener.getClass(), filter);
-		serviceListeners.add(
-				new ListenerEntry(listener, Unchecked.get(() -> FilterImpl.newInstance(filter))));
+		addListenerEntry(
+				new ListenerEntry(
+						listener,
+						Unchecked.get(() -> parseFilter(filter)),
+						listenerOrder.getAndIncrement()));
 	}
 
 	@Override
-	public final synchronized void addServiceListener(ServiceListener listener) {
+	public final void addServiceListener(ServiceListener listener) {
 		logger.debug("add listener {} with no filter", listener);
-		serviceListeners.add(new ListenerEntry(listener, null));
+		addListenerEntry(new ListenerEntry(listener, null, listenerOrder.getAndIncrement()));
 	}
 
-	private synchronized void notifyListeners(
-			int type, AbstractServiceReference<?> serviceReference) {
+	private void addListenerEntry(ListenerEntry entry) {
+		String objectClass = entry.filter == null ? null : entry.filter.getRequiredObjectClass();
+		if (objectClass == null) {
+			unindexedListeners.add(entry);
+		} else {
+			listenersByObjectClass.computeIfAbsent(objectClass, k -> new ListenerList<>()).add(entry);
+		}
+	}
+
+	private void notifyListeners(int type, AbstractServiceReference<?> serviceReference) {
+		var candidates = new ArrayList<ListenerEntry>();
+		unindexedListeners.forEach(candidates::add);
+		boolean fromBuckets = false;
+		for (String clazz : serviceReference.objectClass) {
+			var bucket = listenersByObjectClass.get(clazz);
+			if (bucket != null) {
+				bucket.forEach(candidates::add);
+				fromBuckets = true;
+			}
+		}
+		if (fromBuckets) {
+			// listeners are called in the order they were added, regardless of which bucket they're in
+			candidates.sort(Comparator.comparingLong(entry -> entry.order));
+		}
 		var event = new ServiceEvent(type, serviceReference);
-		for (var listener : serviceListeners) {
+		for (var listener : candidates) {
+			if (listener.removed) {
+				// removed by an earlier listener in this same dispatch
+				continue;
+			}
 			if (listener.filter == null || listener.filter.match(serviceReference)) {
 				try {
 					listener.listener.serviceChanged(event);
@@ -166,10 +236,13 @@ abstract class ServiceRegistry extends BundleContextImpl {
 	static class ListenerEntry {
 		final ServiceListener listener;
 		final FilterImpl filter;
+		final long order;
+		volatile boolean removed;
 
-		ListenerEntry(ServiceListener listener, FilterImpl filter) {
+		ListenerEntry(ServiceListener listener, FilterImpl filter, long order) {
 			this.listener = listener;
 			this.filter = filter;
+			this.order = order;
 		}
 
 		@Override
@@ -201,16 +274,21 @@ abstract class ServiceRegistry extends BundleContextImpl {
 	}
 
 	@Override
-	public final synchronized ServiceReference<?> getServiceReference(String clazz) {
+	public final ServiceReference<?> getServiceReference(String clazz) {
 		List<AbstractServiceReference<?>> servicesForClazz = services.get(clazz);
-		return (servicesForClazz == null || servicesForClazz.isEmpty())
-				? null
-				: servicesForClazz.get(0);
+		if (servicesForClazz == null) {
+			return null;
+		}
+		// iterate rather than isEmpty/get(0) so that a concurrent unregister can't race us
+		for (var reference : servicesForClazz) {
+			return reference;
+		}
+		return null;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
-	public final synchronized <S> ServiceReference<S> getServiceReference(Class<S> clazz) {
+	public final <S> ServiceReference<S> getServiceReference(Class<S> clazz) {
 		return (ServiceReference<S>) getServiceReference(clazz.getName());
 	}
 
@@ -222,26 +300,168 @@ abstract class ServiceRegistry extends BundleContextImpl {
 	}
 
 	@Override
-	public final synchronized ServiceReference<?>[] getServiceReferences(String clazz, String filter)
+	public final ServiceReference<?>[] getServiceReferences(String clazz, String filter)
 			throws InvalidSyntaxException {
 		if (clazz != null && filter == null) {
 			return services
 					.getOrDefault(clazz, Collections.emptyList())
 					.toArray(new ServiceReference<?>[0]);
 		} else {
-			FilterImpl filterParsed = FilterImpl.newInstance(filter);
+			var key = Arrays.asList(clazz, filter);
+			var cached = queryCache.get(key);
+			if (cached != null && cached.version == versionOf(cached.interfaze)) {
+				return cached.references.clone();
+			}
+			FilterImpl filterParsed = parseFilter(filter);
 			String interfaze = clazz != null ? clazz : filterParsed.getRequiredObjectClass();
+			long version = versionOf(interfaze);
+			ServiceReference<?>[] references;
 			if (interfaze != null) {
-				return services.getOrDefault(interfaze, Collections.emptyList()).stream()
-						.filter(filterParsed::match)
-						.toArray(ServiceReference[]::new);
+				references =
+						services.getOrDefault(interfaze, Collections.emptyList()).stream()
+								.filter(filterParsed::match)
+								.toArray(ServiceReference[]::new);
 			} else {
-				return services.values().stream()
-						.flatMap(Collection::stream)
-						.filter(filterParsed::match)
-						.toArray(ServiceReference[]::new);
+				references =
+						services.values().stream()
+								.flatMap(Collection::stream)
+								.filter(filterParsed::match)
+								.toArray(ServiceReference[]::new);
+			}
+			queryCache.put(key, new CachedQuery(interfaze, version, references));
+			return references.clone();
+		}
+	}
+
+	/** Roughly how many entries {@link #filterCache} and {@link #queryCache} hold at most. */
+	private static final int MAX_CACHED = 1024;
+
+	/**
+	 * e4 and DS parse the same few hundred filters thousands of times during startup. {@link
+	 * FilterImpl} is immutable, so parsed filters can be shared freely.
+	 */
+	private final ClockCache<String, FilterImpl> filterCache = new ClockCache<>(MAX_CACHED);
+
+	/**
+	 * Results of {@link #getServiceReferences(String, String)} keyed by (clazz, filter). An entry is
+	 * only valid if it was computed at the current version of the objectClass it searched, so a
+	 * query which races with a registration change can never be served stale, and registering one
+	 * class doesn't throw away the queries for every other class.
+	 */
+	private final ClockCache<List<String>, CachedQuery> queryCache = new ClockCache<>(MAX_CACHED);
+
+	/** Bumped after every registration, unregistration, or property change of that objectClass. */
+	private final Map<String, AtomicLong> classVersions = new ConcurrentHashMap<>();
+
+	/** Bumped after every change, for queries which can't be narrowed to one objectClass. */
+	private final AtomicLong servicesVersion = new AtomicLong();
+
+	private static class CachedQuery {
+		final String interfaze;
+		final long version;
+		final ServiceReference<?>[] references;
+
+		CachedQuery(String interfaze, long version, ServiceReference<?>[] references) {
+			this.interfaze = interfaze;
+			this.version = version;
+			this.references = references;
+		}
+	}
+
+	/**
+	 * A map which holds about {@code maxSize} entries. Reads never lock, they only mark their entry
+	 * as referenced. A put which overflows the map sweeps a clock hand over the entries, evicting the
+	 * unreferenced ones and clearing the mark of the others, which approximates least-recently-used
+	 * without having to reorder anything on a read.
+	 */
+	static class ClockCache<K, V> {
+		private final int maxSize;
+		private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+		/** Guarded by {@code this}, restarted whenever it runs off the end of the map. */
+		private Iterator<Map.Entry<K, Entry<V>>> hand;
+
+		private static class Entry<V> {
+			final V value;
+			volatile boolean referenced;
+
+			Entry(V value) {
+				this.value = value;
+				// a new entry survives at least one sweep, so it isn't evicted by its own put
+				this.referenced = true;
+			}
+		}
+
+		ClockCache(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		V get(K key) {
+			var entry = map.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (!entry.referenced) {
+				// only write when it changes, so that hot entries don't bounce between cores
+				entry.referenced = true;
+			}
+			return entry.value;
+		}
+
+		void put(K key, V value) {
+			map.put(key, new Entry<>(value));
+			if (map.size() > maxSize) {
+				evict();
 			}
 		}
+
+		int size() {
+			return map.size();
+		}
+
+		private synchronized void evict() {
+			while (map.size() > maxSize) {
+				if (hand == null || !hand.hasNext()) {
+					hand = map.entrySet().iterator();
+					if (!hand.hasNext()) {
+						return;
+					}
+				}
+				var next = hand.next();
+				var entry = next.getValue();
+				if (entry.referenced) {
+					entry.referenced = false;
+				} else {
+					map.remove(next.getKey(), entry);
+				}
+			}
+		}
+	}
+
+	private long versionOf(String interfaze) {
+		if (interfaze == null) {
+			return servicesVersion.get();
+		}
+		var version = classVersions.get(interfaze);
+		return version == null ? 0 : version.get();
+	}
+
+	private void servicesChanged(String[] objectClass) {
+		for (String clazz : objectClass) {
+			classVersions.computeIfAbsent(clazz, k -> new AtomicLong()).incrementAndGet();
+		}
+		servicesVersion.incrementAndGet();
+	}
+
+	private FilterImpl parseFilter(String filter) throws InvalidSyntaxException {
+		if (filter == null) {
+			return FilterImpl.newInstance(filter);
+		}
+		var cached = filterCache.get(filter);
+		if (cached == null) {
+			cached = FilterImpl.newInstance(filter);
+			filterCache.put(filter, cached);
+		}
+		return cached;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -254,7 +474,7 @@ abstract class ServiceRegistry extends BundleContextImpl {
 
 	@Override
 	public final Filter createFilter(String filter) throws InvalidSyntaxException {
-		return FilterImpl.newInstance(filter);
+		return parseFilter(filter);
 	}
 
 	class ShimServiceReference<S> extends AbstractServiceReference<S> {
@@ -337,19 +557,24 @@ abstract class ServiceRegistry extends BundleContextImpl {
 		}
 
 		@Override
-		public synchronized void setProperties(Dictionary<String, ?> properties) {
-			reference.properties = (Dictionary<String, Object>) properties;
+		public void setProperties(Dictionary<String, ?> properties) {
+			synchronized (reference) {
+				reference.properties = (Dictionary<String, Object>) properties;
+			}
+			servicesChanged(reference.objectClass);
 			notifyListeners(ServiceEvent.MODIFIED, reference);
 		}
 
 		@Override
 		public void unregister() {
 			notifyListeners(ServiceEvent.UNREGISTERING, reference);
-			synchronized (ServiceRegistry.this) {
-				for (String clazz : reference.objectClass) {
-					services.get(clazz).remove(this);
+			for (String clazz : reference.objectClass) {
+				var servicesForClazz = services.get(clazz);
+				if (servicesForClazz != null) {
+					servicesForClazz.remove(reference);
 				}
 			}
+			servicesChanged(reference.objectClass);
 		}
 
 		@Override
@@ -375,7 +600,10 @@ abstract class ServiceRegistry extends BundleContextImpl {
 			this.properties.put(Constants.SERVICE_ID, Long.valueOf(id));
 			this.properties.put(Constants.OBJECTCLASS, objectClass);
 			this.properties.put(Constants.SERVICE_SCOPE, Constants.SCOPE_BUNDLE);
-			this.properties.put(Constants.SERVICE_BUNDLEID, Long.valueOf(0));
+			if (this.properties.get(Constants.SERVICE_BUNDLEID) == null) {
+				// registered by the system bundle, see ShimBundleContext for the others
+				this.properties.put(Constants.SERVICE_BUNDLEID, Long.valueOf(0));
+			}
 		}
 
 		protected abstract S get();
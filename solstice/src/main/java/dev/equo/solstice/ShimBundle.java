@@ -27,10 +27,8 @@ import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.framework.Bundle;
@@ -38,7 +36,9 @@ import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.Version;
 import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
@@ -66,6 +66,41 @@ public class ShimBundle implements Bundle {
 		public org.osgi.framework.Bundle getBundle() {
 			return bundle;
 		}
+
+		@Override
+		public ServiceRegistration<?> registerService(
+				String[] clazzes, Object service, Dictionary<String, ?> properties) {
+			return super.registerService(clazzes, service, withBundleId(properties));
+		}
+
+		@Override
+		public ServiceRegistration<?> registerService(
+				String clazz, Object service, Dictionary<String, ?> properties) {
+			return super.registerService(clazz, service, withBundleId(properties));
+		}
+
+		@Override
+		public <S> ServiceRegistration<S> registerService(
+				Class<S> clazz, S service, Dictionary<String, ?> properties) {
+			return super.registerService(clazz, service, withBundleId(properties));
+		}
+
+		@Override
+		public <S> ServiceRegistration<S> registerService(
+				Class<S> clazz, ServiceFactory<S> factory, Dictionary<String, ?> properties) {
+			return super.registerService(clazz, factory, withBundleId(properties));
+		}
+
+		/** So that {@link Constants#SERVICE_BUNDLEID} says which bundle registered the service. */
+		@SuppressWarnings("unchecked")
+		private Dictionary<String, ?> withBundleId(Dictionary<String, ?> properties) {
+			Dictionary<String, Object> copy =
+					properties == null
+							? new Hashtable<>()
+							: (Dictionary<String, Object>) Dictionaries.copy(properties);
+			copy.put(Constants.SERVICE_BUNDLEID, bundle.getBundleId());
+			return copy;
+		}
 	}
 
 	final long bundleId;
@@ -73,11 +108,13 @@ public class ShimBundle implements Bundle {
 	final @Nullable String activator;
 	final Hashtable<String, String> headers = new Hashtable<>();
 	private final ShimBundleContext context;
+	private final ShimBundleEntries entries;
 
 	ShimBundle(long bundleId, BundleContextShim context, SolsticeManifest manifest) {
 		this.bundleId = bundleId;
 		this.context = new ShimBundleContext(context, this);
 		this.manifest = manifest;
+		this.entries = new ShimBundleEntries(manifest.getJarUrl());
 		activator = manifest.getHeadersOriginal().get(Constants.BUNDLE_ACTIVATOR);
 		manifest
 				.getHeadersOriginal()
@@ -106,7 +143,12 @@ public class ShimBundle implements Bundle {
 
 	@Override
 	public Class<?> loadClass(String name) throws ClassNotFoundException {
-		return Class.forName(name);
+		var clazz = Class.forName(name);
+		var lazyActivation = context.delegate.lazyActivation;
+		if (lazyActivation != null) {
+			lazyActivation.onClassLoaded(clazz);
+		}
+		return clazz;
 	}
 
 	//////////////////////////
@@ -140,16 +182,21 @@ public class ShimBundle implements Bundle {
 	///////////////////
 	// Bundle overrides
 	///////////////////
-	int state;
+	volatile int state;
 
-	private boolean activateHasBeenCalled = false;
+	/**
+	 * A compare-and-set rather than a monitor, so that activating bundles on several threads never
+	 * takes per-bundle locks in an order which could deadlock. Waiting for an activation which
+	 * another thread began is up to {@link Solstice}.
+	 */
+	private final AtomicBoolean activateHasBeenCalled = new AtomicBoolean();
 
 	private void activate() {
-		if (activateHasBeenCalled) {
+		if (!activateHasBeenCalled.compareAndSet(false, true)) {
 			return;
 		}
-		activateHasBeenCalled = true;
-		if (state != Bundle.RESOLVED) {
+		// a deferred lazy bundle is already STARTING, see LazyActivation
+		if (state != Bundle.RESOLVED && state != Bundle.STARTING) {
 			state = Bundle.RESOLVED;
 			context.delegate.notifyBundleListeners(BundleEvent.RESOLVED, this);
 		}
@@ -238,8 +285,7 @@ public class ShimBundle implements Bundle {
 				int len = manifest.getJarUrl().length();
 				return new URL(manifest.getJarUrl().substring("jar:".length(), len - "!".length()));
 			}
-			ZipEntry entry = parseFromZip(zip -> zip.getEntry(stripLeadingSlash(path)));
-			if (entry != null) {
+			if (entries.contains(stripLeadingSlash(path))) {
 				return new URL(manifest.getJarUrl() + "/" + stripLeadingSlash(path));
 			}
 			return null;
@@ -248,28 +294,9 @@ public class ShimBundle implements Bundle {
 		}
 	}
 
-	private <T> T parseFromZip(Function<ZipFile, T> function) {
-		String prefix = "jar:file:";
-		if (!manifest.getJarUrl().startsWith(prefix)) {
-			throw new IllegalArgumentException(
-					"Must start with " + prefix + " was " + manifest.getJarUrl());
-		}
-		if (!manifest.getJarUrl().endsWith("!")) {
-			throw new IllegalArgumentException("Must end with ! was " + manifest.getJarUrl());
-		}
-		try (var zipFile =
-				new ZipFile(
-						manifest.getJarUrl().substring(prefix.length(), manifest.getJarUrl().length() - 1))) {
-			return function.apply(zipFile);
-		} catch (IOException e) {
-			throw Unchecked.wrap(e);
-		}
-	}
-
 	@Override
 	public URL getResource(String name) {
-		ZipEntry entry = parseFromZip(zip -> zip.getEntry(stripLeadingSlash(name)));
-		if (entry != null) {
+		if (entries.contains(stripLeadingSlash(name))) {
 			return getEntry(name);
 		} else {
 			return BundleContextShim.class.getClassLoader().getResource(name);
@@ -283,19 +310,7 @@ public class ShimBundle implements Bundle {
 
 	@Override
 	public Enumeration<String> getEntryPaths(String path) {
-		var pathFinal = stripLeadingAddTrailingSlash(path);
-		return parseFromZip(
-				zipFile -> {
-					List<String> zipPaths = new ArrayList<>();
-					var entries = zipFile.entries();
-					while (entries.hasMoreElements()) {
-						var entry = entries.nextElement();
-						if (entry.getName().startsWith(pathFinal)) {
-							zipPaths.add(entry.getName());
-						}
-					}
-					return Collections.enumeration(zipPaths);
-				});
+		return Collections.enumeration(entries.startingWith(stripLeadingAddTrailingSlash(path)));
 	}
 
 	@Override
@@ -322,33 +337,19 @@ public class ShimBundle implements Bundle {
 			for (var fragment : bundle.manifest.fragments) {
 				addEntriesIn(urls, (ShimBundle) fragment.hydrated);
 			}
-			var pathsWithinZip =
-					bundle.parseFromZip(
-							zipFile -> {
-								List<String> zipPaths = new ArrayList<>();
-								var entries = zipFile.entries();
-								while (entries.hasMoreElements()) {
-									var entry = entries.nextElement();
-									if (entry.getName().startsWith(pathFinal)) {
-										var after = entry.getName().substring(pathFinal.length());
-										int lastSlash = after.lastIndexOf('/');
-										if (lastSlash == -1) {
-											if (pattern.matcher(after).matches()) {
-												zipPaths.add(entry.getName());
-											}
-										} else if (recurse) {
-											var name = after.substring(lastSlash + 1);
-											if (pattern.matcher(name).matches()) {
-												zipPaths.add(entry.getName());
-											}
-										}
-									}
-								}
-								return zipPaths;
-							});
 			try {
-				for (var withinZip : pathsWithinZip) {
-					urls.add(new URL(bundle.manifest.getJarUrl() + "/" + withinZip));
+				for (var withinZip : bundle.entries.startingWith(pathFinal)) {
+					var after = withinZip.substring(pathFinal.length());
+					int lastSlash = after.lastIndexOf('/');
+					boolean matches;
+					if (lastSlash == -1) {
+						matches = pattern.matcher(after).matches();
+					} else {
+						matches = recurse && pattern.matcher(after.substring(lastSlash + 1)).matches();
+					}
+					if (matches) {
+						urls.add(new URL(bundle.manifest.getJarUrl() + "/" + withinZip));
+					}
 				}
 			} catch (MalformedURLException e) {
 				throw Unchecked.wrap(e);
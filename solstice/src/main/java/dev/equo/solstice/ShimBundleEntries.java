@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+/**
+ * Sorted index of the entry names in the jar behind a {@link ShimBundle}. The plugin registry and
+ * e4 model loading ask a bundle about its entries thousands of times per startup, so we open the jar
+ * once, the first time it is needed, and answer every later query from the index. Every {@link
+ * ShimBundle} query only needs entry names (the content is read through the `jar:` url handler,
+ * which has its own cache), so the jar is closed as soon as the index is built rather than holding a
+ * file handle open for every bundle until the JVM exits.
+ */
+class ShimBundleEntries {
+	private static final String PREFIX = "jar:file:";
+
+	private final String jarUrl;
+	private volatile String[] sortedNames;
+
+	ShimBundleEntries(String jarUrl) {
+		this.jarUrl = jarUrl;
+	}
+
+	private String[] sortedNames() {
+		var names = sortedNames;
+		if (names == null) {
+			synchronized (this) {
+				names = sortedNames;
+				if (names == null) {
+					names = readSortedNames();
+					sortedNames = names;
+				}
+			}
+		}
+		return names;
+	}
+
+	private String[] readSortedNames() {
+		if (!jarUrl.startsWith(PREFIX)) {
+			throw new IllegalArgumentException("Must start with " + PREFIX + " was " + jarUrl);
+		}
+		if (!jarUrl.endsWith("!")) {
+			throw new IllegalArgumentException("Must end with ! was " + jarUrl);
+		}
+		try (var zipFile = new ZipFile(jarUrl.substring(PREFIX.length(), jarUrl.length() - 1))) {
+			var names = new ArrayList<String>(zipFile.size());
+			var entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				names.add(entries.nextElement().getName());
+			}
+			var array = names.toArray(new String[0]);
+			Arrays.sort(array);
+			return array;
+		} catch (IOException e) {
+			throw Unchecked.wrap(e);
+		}
+	}
+
+	/** Same semantics as {@link ZipFile#getEntry(String)} != null, including the trailing `/`. */
+	boolean contains(String name) {
+		var names = sortedNames();
+		return Arrays.binarySearch(names, name) >= 0 || Arrays.binarySearch(names, name + "/") >= 0;
+	}
+
+	/** Returns every entry which starts with the given prefix, in sorted order. */
+	List<String> startingWith(String prefix) {
+		var names = sortedNames();
+		int idx = Arrays.binarySearch(names, prefix);
+		if (idx < 0) {
+			idx = -(idx + 1);
+		}
+		var result = new ArrayList<String>();
+		while (idx < names.length && names[idx].startsWith(prefix)) {
+			result.add(names[idx]);
+			++idx;
+		}
+		return result;
+	}
+}
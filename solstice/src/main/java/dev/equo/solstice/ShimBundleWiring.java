@@ -93,6 +93,10 @@ class ShimBundleWiring extends Unimplemented.BundleWiring {
 
 	@Override
 	public ClassLoader getClassLoader() {
+		var lazyActivation = bundle.getRootBundleContext().lazyActivation;
+		if (lazyActivation != null) {
+			return lazyActivation.classLoader;
+		}
 		return ShimBundleWiring.class.getClassLoader();
 	}
 }
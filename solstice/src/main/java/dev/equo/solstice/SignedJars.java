@@ -14,12 +14,24 @@
 package dev.equo.solstice;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.jar.JarFile;
@@ -61,10 +73,7 @@ public class SignedJars {
 					if (fileNamesToStrip.test(f.getName())) {
 						File strippedJar = strippedFile(f);
 						try {
-							var strippedBytes = readAndStripInMemory(f);
-							if (!strippedJar.exists() || strippedJar.length() != strippedBytes.length) {
-								Files.write(strippedJar.toPath(), strippedBytes);
-							}
+							stripIfStale(f, strippedJar);
 						} catch (IOException e) {
 							throw new RuntimeException(e);
 						}
@@ -74,20 +83,209 @@ public class SignedJars {
 				});
 	}
 
-	private static byte[] readAndStripInMemory(File input) throws IOException {
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
+	/**
+	 * Strips the signature from {@code input} into {@code output}, unless {@code output} was already
+	 * stripped from a jar with the same content. The source's size, timestamp and hash are recorded
+	 * next to the output, so an unchanged jar is a single stat, and a touched-but-identical jar is a
+	 * single hash.
+	 */
+	private static void stripIfStale(File input, File output) throws IOException {
+		var sourceToken = new File(output.getAbsolutePath() + ".source");
+		String stamp = input.length() + " " + input.lastModified();
+		String[] previous = null;
+		if (output.exists() && sourceToken.exists()) {
+			previous = Files.readString(sourceToken.toPath(), StandardCharsets.UTF_8).split("\n");
+			if (previous.length == 2 && previous[0].equals(stamp)) {
+				return;
+			}
+		}
+		String hash = hash(input);
+		if (previous != null && previous.length == 2 && previous[1].equals(hash)) {
+			Files.writeString(sourceToken.toPath(), stamp + "\n" + hash, StandardCharsets.UTF_8);
+			return;
+		}
+		// strip into a temp file and move it into place, so that a concurrent reader never sees half
+		var temp = File.createTempFile(output.getName(), ".tmp", output.getParentFile());
+		try {
+			strip(input, temp);
+			Files.move(
+					temp.toPath(),
+					output.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		Files.writeString(sourceToken.toPath(), stamp + "\n" + hash, StandardCharsets.UTF_8);
+	}
+
+	private static String hash(File file) throws IOException {
+		try (var input = new FileInputStream(file)) {
+			var sha = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[64 * 1024];
+			int numRead;
+			while ((numRead = input.read(buffer)) != -1) {
+				sha.update(buffer, 0, numRead);
+			}
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(sha.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw Unchecked.wrap(e);
+		}
+	}
+
+	private static boolean isSignature(String entryName) {
+		return entryName.endsWith(".SF") || entryName.endsWith(".RSA") || entryName.endsWith(".DSA");
+	}
+
+	private static void strip(File input, File output) throws IOException {
+		if (!stripRaw(input, output)) {
+			stripRecompress(input, output);
+		}
+	}
+
+	private static final int EOCD_SIG = 0x06054b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int CEN_SIZE = 46;
+
+	/**
+	 * Copies every entry except the signatures without decompressing anything: each local entry
+	 * (header, compressed data, and data descriptor) is copied byte-for-byte, and only the central
+	 * directory is rewritten with the new offsets. Returns false without writing anything useful if
+	 * the jar uses a zip feature this doesn't handle (ZIP64, split archives), in which case the
+	 * caller falls back to {@link #stripRecompress}.
+	 */
+	private static boolean stripRaw(File input, File output) throws IOException {
+		try (var in = FileChannel.open(input.toPath(), StandardOpenOption.READ)) {
+			long size = in.size();
+			// the end of central directory record is followed by a comment of at most 64k
+			int tailSize = (int) Math.min(size, EOCD_SIZE + 0xFFFF);
+			var tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(in, tail, size - tailSize);
+			int eocd = -1;
+			for (int i = tailSize - EOCD_SIZE; i >= 0; --i) {
+				if (tail.getInt(i) == EOCD_SIG) {
+					eocd = i;
+					break;
+				}
+			}
+			if (eocd == -1 || tail.getShort(eocd + 4) != 0 || tail.getShort(eocd + 6) != 0) {
+				return false;
+			}
+			int numEntries = Short.toUnsignedInt(tail.getShort(eocd + 10));
+			long cenSize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+			long cenOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+			if (numEntries == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+				return false; // ZIP64
+			}
+			var cen = ByteBuffer.allocate((int) cenSize).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(in, cen, cenOffset);
+
+			// find every central directory record, and the local offset of each one
+			int[] record = new int[numEntries];
+			long[] localOffset = new long[numEntries];
+			int pos = 0;
+			for (int i = 0; i < numEntries; ++i) {
+				if (pos + CEN_SIZE > cenSize || cen.getInt(pos) != CEN_SIG) {
+					return false;
+				}
+				record[i] = pos;
+				localOffset[i] = Integer.toUnsignedLong(cen.getInt(pos + 42));
+				pos += CEN_SIZE + cenVariableLength(cen, pos);
+			}
+			// each local entry ends where the next one starts, or at the central directory
+			long[] sortedOffsets = localOffset.clone();
+			Arrays.sort(sortedOffsets);
+
+			var newCen = new ByteArrayOutputStream((int) cenSize);
+			int newNumEntries = 0;
+			try (var out =
+					FileChannel.open(
+							output.toPath(),
+							StandardOpenOption.WRITE,
+							StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (int i = 0; i < numEntries; ++i) {
+					int r = record[i];
+					int nameLength = Short.toUnsignedInt(cen.getShort(r + 28));
+					var name =
+							new String(cen.array(), r + CEN_SIZE, nameLength, StandardCharsets.UTF_8);
+					if (isSignature(name)) {
+						continue;
+					}
+					int next = Arrays.binarySearch(sortedOffsets, localOffset[i]) + 1;
+					long end = next < sortedOffsets.length ? sortedOffsets[next] : cenOffset;
+
+					var recordBytes =
+							Arrays.copyOfRange(cen.array(), r, r + CEN_SIZE + cenVariableLength(cen, r));
+					ByteBuffer.wrap(recordBytes)
+							.order(ByteOrder.LITTLE_ENDIAN)
+							.putInt(42, (int) out.position());
+					newCen.write(recordBytes);
+					++newNumEntries;
+
+					transferFully(in, localOffset[i], end - localOffset[i], out);
+				}
+				long newCenOffset = out.position();
+				var newEocd = ByteBuffer.allocate(EOCD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				newEocd.putInt(EOCD_SIG);
+				newEocd.putShort((short) 0);
+				newEocd.putShort((short) 0);
+				newEocd.putShort((short) newNumEntries);
+				newEocd.putShort((short) newNumEntries);
+				newEocd.putInt(newCen.size());
+				newEocd.putInt((int) newCenOffset);
+				newEocd.putShort((short) 0);
+				newEocd.flip();
+				out.write(ByteBuffer.wrap(newCen.toByteArray()));
+				out.write(newEocd);
+			}
+			return true;
+		}
+	}
+
+	private static int cenVariableLength(ByteBuffer cen, int record) {
+		return Short.toUnsignedInt(cen.getShort(record + 28))
+				+ Short.toUnsignedInt(cen.getShort(record + 30))
+				+ Short.toUnsignedInt(cen.getShort(record + 32));
+	}
+
+	private static void readFully(FileChannel in, ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			int numRead = in.read(buffer, position);
+			if (numRead < 0) {
+				throw new IOException("Unexpected end of file at " + position);
+			}
+			position += numRead;
+		}
+	}
+
+	private static void transferFully(FileChannel in, long position, long count, FileChannel out)
+			throws IOException {
+		while (count > 0) {
+			long transferred = in.transferTo(position, count, out);
+			if (transferred <= 0) {
+				throw new IOException("Unexpected end of file at " + position);
+			}
+			position += transferred;
+			count -= transferred;
+		}
+	}
+
+	/** Decompresses and recompresses every entry, for jars which {@link #stripRaw} can't handle. */
+	private static void stripRecompress(File input, File output) throws IOException {
 		try (ZipInputStream zipInput =
 						new ZipInputStream(new BufferedInputStream(new FileInputStream(input)));
-				ZipOutputStream zipOutput = new ZipOutputStream(output)) {
+				ZipOutputStream zipOutput =
+						new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
 			while (true) {
 				// read the next entry
 				ZipEntry entry = zipInput.getNextEntry();
 				if (entry == null) {
 					break;
 				}
-				if (entry.getName().endsWith(".SF")
-						|| entry.getName().endsWith(".RSA")
-						|| entry.getName().endsWith(".DSA")) {
+				if (isSignature(entry.getName())) {
 					continue;
 				}
 				// if it isn't being modified, just copy the file stream straight-up
@@ -101,7 +299,6 @@ public class SignedJars {
 				zipOutput.closeEntry();
 			}
 		}
-		return output.toByteArray();
 	}
 
 	public static void main(String[] args) throws IOException {
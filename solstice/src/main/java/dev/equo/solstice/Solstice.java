@@ -24,7 +24,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
@@ -371,6 +375,20 @@ public class Solstice {
 		}
 	}
 
+	/**
+	 * Instead of starting every lazy bundle up-front with {@code startAllWithLazy(true)}, starts each
+	 * lazy bundle (and its transitive dependencies) the first time one of its classes is loaded
+	 * through its {@link Bundle#loadClass(String)} or its {@link
+	 * org.osgi.framework.wiring.BundleWiring#getClassLoader()}. Only supported by {@link #openShim}.
+	 */
+	public void deferLazyActivation() {
+		assertContextInitialized(true);
+		if (!(context instanceof BundleContextShim)) {
+			throw new IllegalStateException("Deferred lazy activation is only supported by `openShim`");
+		}
+		((BundleContextShim) context).deferLazyActivation(this::start);
+	}
+
 	private final Set<SolsticeManifest> activatingBundles = new HashSet<>();
 
 	/**
@@ -408,8 +426,119 @@ public class Solstice {
 	}
 
 	private void start(SolsticeManifest manifest, boolean withTransitives) {
+		var running = parallel;
+		if (running == null) {
+			synchronized (this) {
+				visitInActivationOrder(manifest, withTransitives, this::activate, unused -> {});
+			}
+			return;
+		}
+		// plan under the lock, but activate outside of it, because an activation might wait for a
+		// bundle which another thread is activating, and that thread might want to plan something too
+		var steps = new ArrayList<Runnable>();
+		synchronized (this) {
+			visitInActivationOrder(
+					manifest,
+					withTransitives,
+					newlyPlanned -> steps.add(() -> activate(newlyPlanned)),
+					alreadyPlanned ->
+							steps.add(
+									() -> {
+										if (running.contains(alreadyPlanned)) {
+											running.activateNow(alreadyPlanned, this::activate);
+										} else {
+											awaitActivation(alreadyPlanned);
+										}
+									}));
+		}
+		steps.forEach(Runnable::run);
+	}
+
+	/**
+	 * Starts all hydrated manifests, just like {@link #startAllWithLazy(boolean)}, except that
+	 * bundles which don't depend on each other are activated concurrently on a pool of {@code
+	 * threads} threads. A bundle is only activated after every bundle it depends on (imported
+	 * packages, required bundles, and required capabilities) which {@link
+	 * #startAllWithLazy(boolean)} would have activated before it. Bundles in {@code onCallingThread}
+	 * are always activated on the calling thread, for activators which need to run on the UI thread,
+	 * even when another thread starts them, and the calling thread waits for the others with {@code
+	 * waiter} (if not null), e.g. to dispatch UI events for activators on other threads which block
+	 * on the UI thread. If an activator throws an {@link Error}, it is rethrown here.
+	 */
+	public void startAllWithLazyInParallel(
+			boolean lazyValue,
+			int threads,
+			Collection<String> onCallingThread,
+			@Nullable Waiter waiter) {
+		var order = new ArrayList<SolsticeManifest>();
+		synchronized (this) {
+			for (var solstice : bundles) {
+				if (!solstice.isFragment() && solstice.lazy == lazyValue) {
+					visitInActivationOrder(solstice, true, order::add, unused -> {});
+				}
+			}
+		}
+		var activation = new ParallelActivation(order, onCallingThread, logger);
+		parallel = activation;
+		try {
+			activation.run(threads, this::activate, waiter);
+		} finally {
+			parallel = null;
+		}
+	}
+
+	/**
+	 * How the calling thread of {@link #startAllWithLazyInParallel} waits for activators on other
+	 * threads, e.g. by dispatching UI events until there are none and then sleeping.
+	 */
+	public interface Waiter {
+		/** Blocks until there is work for the calling thread, or until {@link #wake()} is called. */
+		void await();
+
+		/**
+		 * Makes {@link #await()} return, called from any thread. If nothing is awaiting, the next call
+		 * to {@link #await()} must return promptly.
+		 */
+		void wake();
+	}
+
+	/** The parallel activation in progress, if any. */
+	private volatile @Nullable ParallelActivation parallel;
+
+	/**
+	 * Bundles whose activation has begun, completed once it has finished. A bundle is only in here
+	 * once its own activation begins, not when it is planned, so that {@link #start(String)} can tell
+	 * a bundle which is active from one which is only going to be.
+	 */
+	private final Map<SolsticeManifest, Activation> activations = new ConcurrentHashMap<>();
+
+	private static class Activation {
+		final Thread thread = Thread.currentThread();
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+	}
+
+	/** Waits for the bundle's activation to finish if another thread has begun it. */
+	private void awaitActivation(SolsticeManifest manifest) {
+		var activation = activations.get(manifest);
+		if (activation != null && activation.thread != Thread.currentThread()) {
+			activation.done.join();
+		}
+	}
+
+	/**
+	 * Calls {@code action} on the given manifest and (if {@code withTransitives}) all of its
+	 * unactivated transitive dependencies, dependencies first. Bundles which were already visited by
+	 * an earlier call go to {@code alreadyVisited} instead, at the point where they would have been
+	 * visited.
+	 */
+	private void visitInActivationOrder(
+			SolsticeManifest manifest,
+			boolean withTransitives,
+			Consumer<SolsticeManifest> action,
+			Consumer<SolsticeManifest> alreadyVisited) {
 		boolean newAddition = activatingBundles.add(manifest);
 		if (!newAddition) {
+			alreadyVisited.accept(manifest);
 			return;
 		}
 		logger.info("prepare {}", manifest);
@@ -423,7 +552,7 @@ public class Solstice {
 					throw new IllegalArgumentException(manifest + " imports missing package " + pkg);
 				} else {
 					for (var bundle : bundles) {
-						start(bundle);
+						visitInActivationOrder(bundle, true, action, alreadyVisited);
 					}
 				}
 			}
@@ -434,7 +563,7 @@ public class Solstice {
 					throw new IllegalArgumentException(manifest + " requires missing capability " + cap);
 				} else {
 					for (var bundle : bundles) {
-						start(bundle);
+						visitInActivationOrder(bundle, true, action, alreadyVisited);
 					}
 				}
 			}
@@ -443,12 +572,34 @@ public class Solstice {
 				if (bundle == null) {
 					throw new IllegalArgumentException(manifest + " required missing bundle " + required);
 				} else {
-					start(bundle);
+					visitInActivationOrder(bundle, true, action, alreadyVisited);
 				}
 			}
 		}
-		// this happens when multiple with same version
+		action.accept(manifest);
+	}
+
+	/**
+	 * Activates the bundle on this thread, unless its activation has already begun. If it began on
+	 * another thread, waits for it to finish.
+	 */
+	private void activate(SolsticeManifest manifest) {
+		var activation = new Activation();
+		var existing = activations.putIfAbsent(manifest, activation);
+		if (existing != null) {
+			awaitActivation(manifest);
+			return;
+		}
 		try {
+			activateNow(manifest);
+		} finally {
+			activation.done.complete(null);
+		}
+	}
+
+	private void activateNow(SolsticeManifest manifest) {
+		// this happens when multiple with same version
+		try (var span = StartupProfiler.span("bundle", manifest.getSymbolicName())) {
 			logger.info("activate {}", manifest);
 			manifest.hydrated.start();
 		} catch (Exception e) {
@@ -56,6 +56,13 @@ public class SolsticeManifest {
 		return new SolsticeManifest(url, -1);
 	}
 
+	/** Same as {@link #parseJar(File)}, for a manifest which has already been read from the jar. */
+	public static SolsticeManifest parseJar(File file, Manifest manifest)
+			throws MalformedURLException {
+		var url = new URL("jar:" + file.toURI() + "!" + SLASH_MANIFEST_PATH);
+		return new SolsticeManifest(url, manifest, -1);
+	}
+
 	public static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
 	public static final String SLASH_MANIFEST_PATH = "/" + MANIFEST_PATH;
 
@@ -76,6 +83,18 @@ public class SolsticeManifest {
 	Bundle hydrated;
 
 	SolsticeManifest(URL manifestURL, int classpathOrder) {
+		this(manifestURL, readManifest(manifestURL), classpathOrder);
+	}
+
+	private static Manifest readManifest(URL manifestURL) {
+		try (InputStream stream = manifestURL.openStream()) {
+			return new Manifest(stream);
+		} catch (IOException e) {
+			throw Unchecked.wrap(e);
+		}
+	}
+
+	private SolsticeManifest(URL manifestURL, Manifest manifest, int classpathOrder) {
 		this.classpathOrder = classpathOrder;
 		var externalForm = URLDecoder.decode(manifestURL.toExternalForm(), StandardCharsets.UTF_8);
 		if (!externalForm.endsWith(SLASH_MANIFEST_PATH)) {
@@ -92,12 +111,6 @@ public class SolsticeManifest {
 			}
 		}
 
-		Manifest manifest;
-		try (InputStream stream = manifestURL.openStream()) {
-			manifest = new Manifest(stream);
-		} catch (IOException e) {
-			throw Unchecked.wrap(e);
-		}
 		for (Map.Entry<Object, Object> entry : manifest.getMainAttributes().entrySet()) {
 			headersOriginal.put(entry.getKey().toString(), entry.getValue().toString());
 		}
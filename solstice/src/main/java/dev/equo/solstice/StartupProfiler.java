@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records wall time, CPU time, and allocations for the expensive parts of IDE startup (bundle
+ * activation, service registration, and {@code IdeHook} callbacks). Disabled by default, in which
+ * case {@link #span(String, String)} is a single volatile read, and {@link #span(String, String,
+ * String...)} doesn't build the name either.
+ *
+ * <p>When {@link #finish()} is called, writes a report sorted by wall time to {@code
+ * startup-profile.txt}, and a trace which can be opened in {@code chrome://tracing} or <a
+ * href="https://ui.perfetto.dev">Perfetto</a> to {@code startup-profile.json}.
+ */
+public class StartupProfiler {
+	private static volatile StartupProfiler instance;
+
+	/** Enables the profiler, which will write its reports into the given directory. */
+	public static synchronized void enable(File outputDir) {
+		if (instance == null) {
+			instance = new StartupProfiler(outputDir);
+		}
+	}
+
+	/**
+	 * Starts measuring a span of work on the current thread, which ends when the returned {@link
+	 * Span} is closed. Use it with try-with-resources.
+	 */
+	public static Span span(String category, String name) {
+		var profiler = instance;
+		return profiler == null ? NO_OP : profiler.new Recording(category, name);
+	}
+
+	/**
+	 * Same as {@link #span(String, String)} with the parts joined by the delimiter, except that they
+	 * are only joined if the profiler is enabled, for spans on hot paths.
+	 */
+	public static Span span(String category, String delimiter, String... nameParts) {
+		var profiler = instance;
+		return profiler == null
+				? NO_OP
+				: profiler.new Recording(category, String.join(delimiter, nameParts));
+	}
+
+	/** Writes the reports, if the profiler is enabled. Spans which end afterwards are ignored. */
+	public static void finish() {
+		StartupProfiler profiler;
+		synchronized (StartupProfiler.class) {
+			profiler = instance;
+			instance = null;
+		}
+		if (profiler != null) {
+			try {
+				profiler.write();
+			} catch (IOException e) {
+				LoggerFactory.getLogger(StartupProfiler.class).warn("Unable to write startup profile", e);
+			}
+		}
+	}
+
+	public interface Span extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	private static final Span NO_OP = () -> {};
+
+	private static class Entry {
+		final String category, name, thread;
+		final long threadId, startNanos, wallNanos, cpuNanos, allocatedBytes;
+
+		Entry(
+				String category,
+				String name,
+				Thread thread,
+				long startNanos,
+				long wallNanos,
+				long cpuNanos,
+				long allocatedBytes) {
+			this.category = category;
+			this.name = name;
+			this.thread = thread.getName();
+			this.threadId = thread.getId();
+			this.startNanos = startNanos;
+			this.wallNanos = wallNanos;
+			this.cpuNanos = cpuNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+
+	private final File outputDir;
+	private final long originNanos = System.nanoTime();
+	private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+	private final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final boolean cpuSupported;
+	private final boolean allocSupported;
+
+	private StartupProfiler(File outputDir) {
+		this.outputDir = outputDir;
+		cpuSupported = threads.isCurrentThreadCpuTimeSupported();
+		if (cpuSupported && !threads.isThreadCpuTimeEnabled()) {
+			threads.setThreadCpuTimeEnabled(true);
+		}
+		allocSupported =
+				threads instanceof com.sun.management.ThreadMXBean
+						&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+		if (allocSupported) {
+			((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+		}
+	}
+
+	private long cpuNanos() {
+		return cpuSupported ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+	private long allocatedBytes(Thread thread) {
+		return allocSupported
+				? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread.getId())
+				: 0;
+	}
+
+	private class Recording implements Span {
+		final String category, name;
+		final Thread thread = Thread.currentThread();
+		final long startNanos = System.nanoTime();
+		final long startCpu = cpuNanos();
+		final long startAlloc = allocatedBytes(thread);
+
+		Recording(String category, String name) {
+			this.category = category;
+			this.name = name;
+		}
+
+		@Override
+		public void close() {
+			long endNanos = System.nanoTime();
+			entries.add(
+					new Entry(
+							category,
+							name,
+							thread,
+							startNanos - originNanos,
+							endNanos - startNanos,
+							cpuNanos() - startCpu,
+							allocatedBytes(thread) - startAlloc));
+		}
+	}
+
+	private void write() throws IOException {
+		var sorted = new ArrayList<>(entries);
+		sorted.sort(Comparator.comparingLong((Entry e) -> e.wallNanos).reversed());
+		Files.createDirectories(outputDir.toPath());
+		var report = new File(outputDir, "startup-profile.txt");
+		var trace = new File(outputDir, "startup-profile.json");
+		Files.write(report.toPath(), report(sorted).getBytes(StandardCharsets.UTF_8));
+		Files.write(trace.toPath(), chromeTrace(sorted).getBytes(StandardCharsets.UTF_8));
+		LoggerFactory.getLogger(StartupProfiler.class)
+				.info("Startup profile written to {} and {}", report, trace);
+	}
+
+	/**
+	 * Spans nest (an activator registers services, which notifies listeners, ...), so the time for a
+	 * span includes the time of every span inside it on the same thread.
+	 */
+	private static String report(List<Entry> sorted) {
+		var builder = new StringBuilder();
+		Map<String, long[]> byCategory = new TreeMap<>();
+		for (var e : sorted) {
+			var totals = byCategory.computeIfAbsent(e.category, unused -> new long[4]);
+			++totals[0];
+			totals[1] += e.wallNanos;
+			totals[2] += e.cpuNanos;
+			totals[3] += e.allocatedBytes;
+		}
+		builder.append(
+				String.format(
+						"%10s %10s %10s %6s  %s%n", "wall ms", "cpu ms", "alloc MB", "count", "category"));
+		byCategory.forEach(
+				(category, totals) ->
+						builder.append(
+								String.format(
+										"%10.1f %10.1f %10.1f %6d  %s%n",
+										millis(totals[1]),
+										millis(totals[2]),
+										megabytes(totals[3]),
+										totals[0],
+										category)));
+		builder.append(System.lineSeparator());
+		builder.append(
+				String.format(
+						"%10s %10s %10s  %-10s %s%n", "wall ms", "cpu ms", "alloc MB", "category", "name"));
+		for (var e : sorted) {
+			builder.append(
+					String.format(
+							"%10.1f %10.1f %10.1f  %-10s %s [%s]%n",
+							millis(e.wallNanos),
+							millis(e.cpuNanos),
+							megabytes(e.allocatedBytes),
+							e.category,
+							e.name,
+							e.thread));
+		}
+		return builder.toString();
+	}
+
+	/** https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU */
+	private static String chromeTrace(List<Entry> entries) {
+		var builder = new StringBuilder();
+		builder.append("{\"traceEvents\":[\n");
+		for (int i = 0; i < entries.size(); ++i) {
+			var e = entries.get(i);
+			builder.append("{\"name\":");
+			appendJsonString(builder, e.name);
+			builder.append(",\"cat\":");
+			appendJsonString(builder, e.category);
+			builder.append(",\"ph\":\"X\",\"pid\":1,\"tid\":");
+			builder.append(e.threadId);
+			builder.append(",\"ts\":");
+			builder.append(e.startNanos / 1_000);
+			builder.append(",\"dur\":");
+			builder.append(e.wallNanos / 1_000);
+			builder.append(",\"args\":{\"cpuMs\":");
+			builder.append(e.cpuNanos / 1_000_000);
+			builder.append(",\"allocBytes\":");
+			builder.append(e.allocatedBytes);
+			builder.append(",\"thread\":");
+			appendJsonString(builder, e.thread);
+			builder.append("}}");
+			if (i < entries.size() - 1) {
+				builder.append(',');
+			}
+			builder.append('\n');
+		}
+		builder.append("]}\n");
+		return builder.toString();
+	}
+
+	private static void appendJsonString(StringBuilder builder, String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static double megabytes(long bytes) {
+		return bytes / (1024.0 * 1024.0);
+	}
+}
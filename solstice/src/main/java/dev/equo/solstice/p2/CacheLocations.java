@@ -31,6 +31,10 @@ import java.util.Optional;
  *         <li>If we get any errors creating the default, it also tries {@code
  *             GRADLE_USER_HOME/caches/p2-data}
  *       </ul>
+ *   <li>{@link #p2archive()} defaults to {@code p2data/p2-data.archive}, can override with {@link
+ *       #override_p2archive}
+ *   <li>{@link #p2mirrors()} defaults to {@code p2data/mirrors.properties}, can override with
+ *       {@link #override_p2mirrors}
  * </ul>
  */
 public class CacheLocations {
@@ -84,19 +88,19 @@ public class CacheLocations {
 	 * <p>Oomph does this by default in the given location.
 	 */
 	public static File p2data() {
+		if (override_p2data != null) {
+			return override_p2data;
+		}
 		if (p2data == null) {
-			p2data = override_p2data;
-			if (p2data == null) {
-				var userHome = userHome();
-				if (userHome.isPresent()) {
-					p2data = userHome.get().resolve(".m2").resolve(P2_DATA_WITHIN_M2).toFile();
+			var userHome = userHome();
+			if (userHome.isPresent()) {
+				p2data = userHome.get().resolve(".m2").resolve(P2_DATA_WITHIN_M2).toFile();
+			} else {
+				var gradleUserHome = System.getenv("GRADLE_USER_HOME");
+				if (gradleUserHome != null) {
+					p2data = Path.of(gradleUserHome).resolve(P2_DATA_GRADLE_USER_HOME).toFile();
 				} else {
-					var gradleUserHome = System.getenv("GRADLE_USER_HOME");
-					if (gradleUserHome != null) {
-						p2data = Path.of(gradleUserHome).resolve(P2_DATA_GRADLE_USER_HOME).toFile();
-					} else {
-						throw new RuntimeException("Could not find user home or GRADLE_USER_HOME");
-					}
+					throw new RuntimeException("Could not find user home or GRADLE_USER_HOME");
 				}
 			}
 		}
@@ -106,6 +110,31 @@ public class CacheLocations {
 	private static File p2data = null;
 	public static File override_p2data = null;
 
+	/**
+	 * A single-file {@link P2DataArchive} of {@link #p2data()}, which is read in place whenever
+	 * something isn't in {@code p2data} itself. Defaults to {@code p2data/p2-data.archive}, override
+	 * by setting {@link #override_p2archive}. Imports are installed next to it as {@code -1}, {@code
+	 * -2} and so on, see {@link P2DataArchive#importFrom(File)}.
+	 */
+	public static File p2archive() {
+		return override_p2archive != null ? override_p2archive : new File(p2data(), "p2-data.archive");
+	}
+
+	public static File override_p2archive = null;
+
+	/**
+	 * The {@link P2Mirrors} configuration, a properties file from url prefix to a comma-separated
+	 * list of mirrors. Defaults to {@code p2data/mirrors.properties}, override by setting {@link
+	 * #override_p2mirrors}.
+	 */
+	public static File p2mirrors() {
+		return override_p2mirrors != null
+				? override_p2mirrors
+				: new File(p2data(), "mirrors.properties");
+	}
+
+	public static File override_p2mirrors = null;
+
 	static File p2Queries() {
 		return new File(p2data(), "queries");
 	}
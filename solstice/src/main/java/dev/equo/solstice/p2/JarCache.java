@@ -15,13 +15,34 @@ package dev.equo.solstice.p2;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import okhttp3.OkHttpClient;
 import okio.Okio;
 
 class JarCache {
+	private static final int PARALLEL_DOWNLOADS = 8;
+	private static final ExecutorService downloads =
+			Executors.newFixedThreadPool(
+					PARALLEL_DOWNLOADS,
+					runnable -> {
+						var thread = new Thread(runnable, "equo-p2-download");
+						thread.setDaemon(true);
+						return thread;
+					});
+	/** Downloads which have started but not finished, so that nobody downloads a jar twice. */
+	private static final Map<File, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+
+	/** Shared by every download, so that they reuse connections to the same repo. */
+	private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
 	final File bundlePool = CacheLocations.p2bundlePool();
-	final OkHttpClient client = new OkHttpClient.Builder().build();
 	final P2ClientCache cachingPolicy;
 
 	JarCache(P2ClientCache cachingPolicy) {
@@ -29,29 +50,79 @@ class JarCache {
 		FileMisc.mkdirs(bundlePool);
 	}
 
-	public File download(P2Unit unit) throws IOException {
-		File repoDir = new File(bundlePool, OfflineCache.filenameSafe(unit.getRepoUrl()));
-		File jar = new File(repoDir, unit.id + "_" + unit.version + ".jar");
+	/** The file where the given jar is, or will be once it has been downloaded. */
+	File fileFor(P2Jar unit) {
+		File repoDir = new File(bundlePool, OfflineCache.filenameSafe(unit.repoUrl));
+		return new File(repoDir, unit.getFilename());
+	}
+
+	/** Downloads the given jar on a background thread, if it isn't in the cache already. */
+	CompletableFuture<File> downloadAsync(P2Jar unit) {
+		File jar = fileFor(unit);
+		if (jar.isFile()) {
+			return CompletableFuture.completedFuture(jar);
+		}
+		var future = new CompletableFuture<File>();
+		var existing = inFlight.putIfAbsent(jar, future);
+		if (existing != null) {
+			return existing;
+		}
+		downloads.execute(
+				() -> {
+					try {
+						future.complete(download(unit));
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					} finally {
+						inFlight.remove(jar, future);
+					}
+				});
+		return future;
+	}
+
+	public File download(P2Jar unit) throws IOException {
+		File jar = fileFor(unit);
+		File repoDir = jar.getParentFile();
 		if (jar.isFile()) {
 			return jar;
 		}
+		if (!repoDir.isDirectory()) {
+			FileMisc.mkdirs(repoDir);
+			FileMisc.writeToken(repoDir, ".url", unit.repoUrl);
+		}
+		// an imported archive is as good as the network, and works offline
+		var archive = P2DataArchive.current();
+		if (archive != null && archive.extract(jar)) {
+			return jar;
+		}
 		if (cachingPolicy.networkAllowed()) {
-			if (!repoDir.isDirectory()) {
-				FileMisc.mkdirs(repoDir);
-				FileMisc.writeToken(repoDir, ".url", unit.getRepoUrl());
-			}
-			var request = P2Client.buildRequest(unit.getJarUrl());
-			var tempFile = File.createTempFile(unit.id, ".jar");
-			try (var response = client.newCall(request).execute()) {
-				if (response.code() == 200) {
-					try (var sink = Okio.buffer(Okio.sink(tempFile))) {
-						sink.writeAll(response.body().source());
-					}
-				} else {
-					throw new IllegalArgumentException(response.code() + " at " + unit.getJarUrl());
+			// next to the jar so that the move is atomic, and .tmp so that it's never taken for a jar
+			var tempFile = File.createTempFile(jar.getName(), ".tmp", repoDir);
+			try {
+				P2Mirrors.fetch(
+						unit.getJarUrl(),
+						candidate -> {
+							try (var response = client.newCall(P2Client.buildRequest(candidate)).execute()) {
+								if (response.code() == 200) {
+									// a failed attempt may have left part of a jar, so this truncates it
+									try (var sink = Okio.buffer(Okio.sink(tempFile))) {
+										sink.writeAll(response.body().source());
+									}
+									return tempFile;
+								}
+								P2Mirrors.checkServerError(response.code(), candidate);
+								P2Mirrors.checkNotOnMirror(candidate, unit.getJarUrl());
+								throw new IllegalArgumentException(response.code() + " at " + candidate);
+							}
+						});
+				try {
+					Files.move(tempFile.toPath(), jar.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (FileAlreadyExistsException e) {
+					// another thread or process downloaded the same jar first
 				}
+			} finally {
+				Files.deleteIfExists(tempFile.toPath());
 			}
-			Files.move(tempFile.toPath(), jar.toPath());
 			return jar;
 		} else {
 			throw new IllegalStateException(
@@ -13,33 +13,139 @@
  *******************************************************************************/
 package dev.equo.solstice.p2;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.Optional;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
-class OfflineCache {
+/**
+ * The raw bytes of every p2 metadata url we have fetched, so that we can work offline.
+ *
+ * <p>Every {@link #put} appends a record (the url, then the content) to a single {@code data}
+ * log, and a hash index from url to record keeps lookups to a hash probe plus a read from the
+ * memory-mapped log. The index is persisted to {@code index} on {@link #close()}, along with how
+ * much of the log it covers, so opening the cache only scans records which were appended after
+ * that. When a url is put again its old record becomes garbage, and once garbage is most of the
+ * log it is compacted on close.
+ *
+ * <p>Compaction copies the live records into the log's next generation, {@code data-1}, {@code
+ * data-2} and so on, rather than replacing the log in place, because a file which is still mapped
+ * can't be replaced on Windows. The index says which generation it's for, and the others are
+ * deleted once nothing maps them anymore.
+ *
+ * <p>The cache is only opened by a {@link P2Client} which holds the p2 lockfile, so within a
+ * process it is shared by the client's threads and between processes it is never written
+ * concurrently.
+ */
+class OfflineCache implements AutoCloseable {
 	final File rootDir;
+	private final File indexFile;
+	private final FileChannel data;
+	/** The offset of the latest record for each url. */
+	private final Map<String, Long> index = new HashMap<>();
+
+	private long generation;
+	private File dataFile;
+	private long dataLength;
+	private long garbage = 0;
+	private boolean indexChanged = false;
+	/** At most the first 2GB of the log, which is as much as a single mapping can hold. */
+	private @Nullable MappedByteBuffer mapped;
 
-	OfflineCache(File rootDir) {
+	/** A read-only log inside an imported {@link P2DataArchive}, for urls which aren't local. */
+	private @Nullable P2DataArchive archive;
+
+	private File archivedFile;
+	/** At most the first 2GB of the archived log. */
+	private ByteBuffer archived;
+
+	private final Map<String, Long> archivedIndex = new HashMap<>();
+
+	OfflineCache(File rootDir) throws IOException {
 		this.rootDir = rootDir;
-		if (!FileMisc.readToken(rootDir, VERSION).equals(Optional.of(VERSION_VALUE))) {
+		var version = FileMisc.readToken(rootDir, VERSION).orElse("");
+		if (!version.equals(VERSION_VALUE) && !version.equals(FOLDER_PER_URL)) {
 			if (rootDir.exists()) {
 				FileMisc.delete(rootDir);
 			}
 			FileMisc.mkdirs(rootDir);
-			FileMisc.writeToken(rootDir, VERSION, VERSION_VALUE);
 		}
+		indexFile = new File(rootDir, INDEX);
+		var indexed = readIndex();
+		generation = indexed != null ? indexed[0] : latestGeneration();
+		dataFile = new File(rootDir, dataName(generation));
+		data =
+				FileChannel.open(
+						dataFile.toPath(),
+						StandardOpenOption.CREATE,
+						StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+		try {
+			long covered = indexed != null ? indexed[1] : 0;
+			if (covered > data.size()) {
+				index.clear();
+				garbage = 0;
+				covered = 0;
+			}
+			dataLength = data.size();
+			dataLength = scan(dataLength, covered, this::readFromFile, index);
+			if (dataLength < data.size()) {
+				// a record which was cut off by a crash, the next put would land after it
+				mapped = null;
+				data.truncate(dataLength);
+				indexChanged = true;
+			}
+			if (version.equals(FOLDER_PER_URL)) {
+				migrateFolderPerUrl();
+			}
+			if (!version.equals(VERSION_VALUE)) {
+				// only once migration is done, so that a crash during it tries again next time
+				FileMisc.writeToken(rootDir, VERSION, VERSION_VALUE);
+			}
+			mapArchived();
+		} catch (IOException | RuntimeException e) {
+			data.close();
+			throw e;
+		}
+		deleteOtherGenerations();
 	}
 
 	private static final String VERSION = "version";
-	private static final String VERSION_VALUE = "2";
+	private static final String VERSION_VALUE = "4";
+	/** One folder per url, with {@link #URL} and {@link #CONTENT} files, moved into the log. */
+	private static final String FOLDER_PER_URL = "2";
+
+	private static final String URL = "url";
+	private static final String CONTENT = "content";
+
+	private static final String DATA = "data";
+	private static final String INDEX = "index";
+	private static final Pattern DATA_GENERATION = Pattern.compile(DATA + "(?:-(\\d+))?");
+
+	/** Compaction isn't worth it until there's at least this much garbage. */
+	private static final long MIN_GARBAGE_TO_COMPACT = 8 * 1024 * 1024;
 
 	private static final int MAX_FILE_LENGTH = 92;
 	private static final int ABBREVIATED = 40;
@@ -74,27 +180,56 @@ class OfflineCache {
 		}
 	}
 
-	private static final String URL = "url";
-	private static final String CONTENT = "content";
-
-	public void put(String url, byte[] data) throws IOException {
-		var dir = new File(rootDir, filenameSafe(url));
-		FileMisc.mkdirs(dir);
-		FileMisc.writeToken(dir, URL, url);
-		Files.write(new File(dir, CONTENT).toPath(), data);
+	public synchronized void put(String url, byte[] content) throws IOException {
+		var urlBytes = url.getBytes(StandardCharsets.UTF_8);
+		var record = ByteBuffer.allocate(recordLength(urlBytes.length, content.length));
+		record.putInt(urlBytes.length).put(urlBytes).putInt(content.length).put(content).flip();
+		long offset = dataLength;
+		while (record.hasRemaining()) {
+			data.write(record, offset + record.position());
+		}
+		dataLength += record.capacity();
+		var previous = index.put(url, offset);
+		if (previous != null) {
+			garbage += recordLength(previous, this::readFromFile);
+		}
+		indexChanged = true;
 	}
 
 	public void put404(String url) throws IOException {
 		put(url, _404);
 	}
 
-	public @Nullable byte[] get(String url) throws IOException {
-		var dir = new File(rootDir, filenameSafe(url));
-		if (dir.isDirectory() && FileMisc.readToken(dir, URL).equals(Optional.of(url))) {
-			return Files.readAllBytes(new File(dir, CONTENT).toPath());
-		} else {
-			return null;
+	public synchronized @Nullable byte[] get(String url) throws IOException {
+		var offset = index.get(url);
+		if (offset != null) {
+			return content(offset, this::readFromFile);
 		}
+		offset = archivedIndex.get(url);
+		if (offset != null) {
+			return content(offset, this::readFromArchive);
+		}
+		return null;
+	}
+
+	/**
+	 * Persists the index, compacting the log first if it's mostly garbage. If compaction fails, the
+	 * log and index stay as they were, and the failure is thrown once the log is closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (garbage >= MIN_GARBAGE_TO_COMPACT && garbage * 2 > dataLength) {
+				compact();
+			}
+			if (indexChanged) {
+				writeIndex();
+			}
+		} finally {
+			mapped = null;
+			data.close();
+		}
+		deleteOtherGenerations();
 	}
 
 	public static boolean is404(byte[] data) {
@@ -102,4 +237,295 @@ class OfflineCache {
 	}
 
 	private static final byte[] _404 = new byte[] {0x04, 0x00, 0x04};
+
+	/** Reads {@code length} bytes at {@code offset} of a log, or null if they're past its end. */
+	private interface Reader {
+		@Nullable
+		ByteBuffer read(long offset, int length) throws IOException;
+	}
+
+	private static int recordLength(int urlLength, int contentLength) {
+		return Integer.BYTES + urlLength + Integer.BYTES + contentLength;
+	}
+
+	private static int recordLength(long offset, Reader reader) throws IOException {
+		int urlLength = reader.read(offset, Integer.BYTES).getInt();
+		long contentAt = offset + Integer.BYTES + urlLength;
+		return recordLength(urlLength, reader.read(contentAt, Integer.BYTES).getInt());
+	}
+
+	private static byte[] content(long offset, Reader reader) throws IOException {
+		int urlLength = reader.read(offset, Integer.BYTES).getInt();
+		long contentAt = offset + Integer.BYTES + urlLength;
+		int contentLength = reader.read(contentAt, Integer.BYTES).getInt();
+		var content = new byte[contentLength];
+		reader.read(contentAt + Integer.BYTES, contentLength).get(content);
+		return content;
+	}
+
+	/**
+	 * Adds every complete record between {@code from} and {@code to} to the index, and returns the
+	 * end of the last complete one.
+	 */
+	private static long scan(long to, long from, Reader reader, Map<String, Long> index)
+			throws IOException {
+		long offset = from;
+		while (offset + Integer.BYTES <= to) {
+			int urlLength = reader.read(offset, Integer.BYTES).getInt();
+			long contentAt = offset + Integer.BYTES + urlLength;
+			if (urlLength < 0 || contentAt + Integer.BYTES > to) {
+				break;
+			}
+			int contentLength = reader.read(contentAt, Integer.BYTES).getInt();
+			long end = contentAt + Integer.BYTES + contentLength;
+			if (contentLength < 0 || end > to) {
+				break;
+			}
+			var urlBytes = new byte[urlLength];
+			reader.read(offset + Integer.BYTES, urlLength).get(urlBytes);
+			index.put(new String(urlBytes, StandardCharsets.UTF_8), offset);
+			offset = end;
+		}
+		return offset;
+	}
+
+	private ByteBuffer readFromFile(long offset, int length) throws IOException {
+		if (offset + length <= Integer.MAX_VALUE) {
+			if (mapped == null || offset + length > mapped.capacity()) {
+				// maps everything written so far, puts don't remap until something reads them
+				mapped =
+						data.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(dataLength, Integer.MAX_VALUE));
+			}
+			return slice(mapped, offset, length);
+		} else {
+			var buffer = ByteBuffer.allocate(length);
+			while (buffer.hasRemaining()) {
+				if (data.read(buffer, offset + buffer.position()) < 0) {
+					throw new EOFException(dataFile.getAbsolutePath());
+				}
+			}
+			return buffer.flip();
+		}
+	}
+
+	private ByteBuffer readFromArchive(long offset, int length) throws IOException {
+		if (offset + length <= archived.capacity()) {
+			return slice(archived, offset, length);
+		} else {
+			return archive.read(archivedFile, offset, length);
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, long offset, int length) {
+		int start = Math.toIntExact(offset);
+		return buffer.duplicate().position(start).limit(start + length).slice();
+	}
+
+	/**
+	 * Maps the {@code data} log of an imported archive, if it has one we can read. Its urls come from
+	 * the archived index, so only records which were appended after that index was written are
+	 * scanned.
+	 */
+	private void mapArchived() throws IOException {
+		var archive = P2DataArchive.current();
+		if (archive == null) {
+			return;
+		}
+		var version = archive.readToken(new File(rootDir, VERSION));
+		if (!VERSION_VALUE.equals(version)) {
+			return;
+		}
+		long archivedGeneration = 0;
+		long covered = 0;
+		var indexBytes = archive.read(indexFile);
+		if (indexBytes != null) {
+			var indexed =
+					readIndex(new DataInputStream(new ByteArrayInputStream(indexBytes)), archivedIndex);
+			if (indexed != null) {
+				archivedGeneration = indexed[0];
+				covered = indexed[1];
+			} else if (indexBytes.length >= Long.BYTES) {
+				archivedGeneration = ByteBuffer.wrap(indexBytes).getLong();
+			}
+		}
+		var file = new File(rootDir, dataName(archivedGeneration));
+		var map = archive.map(file);
+		if (map == null) {
+			archivedIndex.clear();
+			return;
+		}
+		this.archive = archive;
+		archivedFile = file;
+		archived = map;
+		long length = archive.length(file);
+		if (covered > length) {
+			archivedIndex.clear();
+			covered = 0;
+		}
+		scan(length, covered, this::readFromArchive, archivedIndex);
+	}
+
+	/**
+	 * Moves the entries of the old one-folder-per-url layout into the log, deleting each folder once
+	 * its entry is in.
+	 */
+	private void migrateFolderPerUrl() throws IOException {
+		File[] dirs = rootDir.listFiles(File::isDirectory);
+		if (dirs == null) {
+			return;
+		}
+		for (File dir : dirs) {
+			var url = FileMisc.readToken(dir, URL);
+			var content = new File(dir, CONTENT);
+			if (url.isPresent() && content.isFile()) {
+				put(url.get(), Files.readAllBytes(content.toPath()));
+			}
+			FileMisc.delete(dir);
+		}
+	}
+
+	private static String dataName(long generation) {
+		return generation == 0 ? DATA : DATA + "-" + generation;
+	}
+
+	/** The newest generation of the log on disk, for when there's no index to say which it is. */
+	private long latestGeneration() {
+		long latest = 0;
+		String[] names = rootDir.list();
+		if (names != null) {
+			for (var name : names) {
+				var matcher = DATA_GENERATION.matcher(name);
+				if (matcher.matches() && matcher.group(1) != null) {
+					latest = Math.max(latest, Long.parseLong(matcher.group(1)));
+				}
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Deletes every generation of the log except the current one. One which is still mapped can't be
+	 * deleted on Windows, so that waits until a later try.
+	 */
+	private void deleteOtherGenerations() {
+		String[] names = rootDir.list();
+		if (names == null) {
+			return;
+		}
+		for (var name : names) {
+			if (DATA_GENERATION.matcher(name).matches() && !name.equals(dataFile.getName())) {
+				try {
+					Files.deleteIfExists(new File(rootDir, name).toPath());
+				} catch (IOException e) {
+					// still mapped, try again next time
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the persisted index and returns the generation of the log it's for and how much of that
+	 * log it covers, or null if it's missing.
+	 */
+	private @Nullable long[] readIndex() throws IOException {
+		try (var input =
+				new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			var indexed = readIndex(input, index);
+			if (indexed == null) {
+				return null;
+			}
+			garbage = indexed[2];
+			return new long[] {indexed[0], indexed[1]};
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #writeIndex()} into {@code into}, and returns the generation,
+	 * covered length and garbage of its log, or null if it was cut off.
+	 */
+	private static @Nullable long[] readIndex(DataInputStream input, Map<String, Long> into)
+			throws IOException {
+		try {
+			long indexedGeneration = input.readLong();
+			long covered = input.readLong();
+			int count = input.readInt();
+			for (int i = 0; i < count; ++i) {
+				var urlBytes = new byte[input.readInt()];
+				input.readFully(urlBytes);
+				into.put(new String(urlBytes, StandardCharsets.UTF_8), input.readLong());
+			}
+			return new long[] {indexedGeneration, covered, input.readLong()};
+		} catch (EOFException e) {
+			// an index which was cut off is the same as no index
+			into.clear();
+			return null;
+		}
+	}
+
+	private void writeIndex() throws IOException {
+		var temp = File.createTempFile(INDEX, ".tmp", rootDir);
+		try {
+			try (var output =
+					new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				output.writeLong(generation);
+				output.writeLong(dataLength);
+				output.writeInt(index.size());
+				for (var entry : index.entrySet()) {
+					var urlBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+					output.writeInt(urlBytes.length);
+					output.write(urlBytes);
+					output.writeLong(entry.getValue());
+				}
+				output.writeLong(garbage);
+			}
+			Files.move(
+					temp.toPath(),
+					indexFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Writes the latest record for each url into the next generation of the log, which becomes the
+	 * current one once the index is written.
+	 */
+	private void compact() throws IOException {
+		var next = new File(rootDir, dataName(generation + 1));
+		var temp = File.createTempFile(DATA, ".tmp", rootDir);
+		try {
+			var compacted = new HashMap<String, Long>();
+			long offset = 0;
+			try (var output = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				for (var entry : index.entrySet()) {
+					int length = recordLength(entry.getValue(), this::readFromFile);
+					var record = readFromFile(entry.getValue(), length);
+					while (record.hasRemaining()) {
+						output.write(record);
+					}
+					compacted.put(entry.getKey(), offset);
+					offset += length;
+				}
+			}
+			// if it exists, a compaction crashed before writing its index, and nothing maps it
+			Files.move(
+					temp.toPath(),
+					next.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			index.clear();
+			index.putAll(compacted);
+			generation += 1;
+			dataFile = next;
+			dataLength = offset;
+			garbage = 0;
+			indexChanged = true;
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
 }
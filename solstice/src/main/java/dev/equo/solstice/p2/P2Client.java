@@ -63,20 +63,30 @@ public class P2Client implements AutoCloseable {
 			metadataResponseCache = null;
 			metadataClient = new OkHttpClient.Builder().build();
 		}
-		offlineMetadataCache = new OfflineCache(new File(p2metadata, "offline"));
+		// the offline cache may only be opened by whoever holds the lock
 		lock = new LockFile(p2metadata);
+		try {
+			offlineMetadataCache = new OfflineCache(new File(p2metadata, "offline"));
+		} catch (IOException | RuntimeException e) {
+			lock.close();
+			throw e;
+		}
 	}
 
 	public File download(P2Unit unit) throws IOException {
-		return jarCache.download(unit);
+		return jarCache.download(new P2Jar(unit));
 	}
 
 	@Override
 	public void close() throws IOException {
-		if (metadataResponseCache != null) {
-			metadataResponseCache.close();
+		try {
+			if (metadataResponseCache != null) {
+				metadataResponseCache.close();
+			}
+			offlineMetadataCache.close();
+		} finally {
+			lock.close();
 		}
-		lock.close();
 	}
 
 	private static final String CONTENT_XML = "content.xml";
@@ -162,30 +172,8 @@ public class P2Client implements AutoCloseable {
 			}
 		}
 		if (cachingPolicy.networkAllowed()) {
-			var request = buildRequest(url);
-			try (var response = metadataClient.newCall(request).execute()) {
-				if (response.code() == 404) {
-					if (cachingPolicy.cacheAllowed()) {
-						offlineMetadataCache.put404(url);
-					}
-					throw new NotFoundException(url);
-				}
-				if (response.code() == 502) {
-					System.err.println("Received 502 from " + url);
-					throw new IOException("Received 502 from " + url);
-				} else {
-					var bytes = response.body().bytes();
-					if (contentIsHtml(bytes)) {
-						if (cachingPolicy.cacheAllowed()) {
-							offlineMetadataCache.put404(url);
-						}
-						throw new NotFoundException(url);
-					}
-					if (cachingPolicy.cacheAllowed()) {
-						offlineMetadataCache.put(url, bytes);
-					}
-					return bytes;
-				}
+			try {
+				return P2Mirrors.fetch(url, candidate -> getBytesFrom(candidate, url));
 			} catch (UnknownHostException e) {
 				if (cachingPolicy.cacheAllowed()) {
 					var cached = offlineMetadataCache.get(url);
@@ -203,6 +191,40 @@ public class P2Client implements AutoCloseable {
 		throw new IllegalStateException("P2Client is in offline mode but has no cache for " + url);
 	}
 
+	/** Fetches the given url from the given mirror of it, and caches the result under the url. */
+	private byte[] getBytesFrom(String candidate, String url) throws IOException, NotFoundException {
+		var request = buildRequest(candidate);
+		try (var response = metadataClient.newCall(request).execute()) {
+			if (response.code() == 404) {
+				throw notFound(candidate, url);
+			}
+			if (response.code() >= 500) {
+				System.err.println("Received " + response.code() + " from " + candidate);
+				throw new P2Mirrors.ServerError(response.code(), candidate);
+			}
+			var bytes = response.body().bytes();
+			if (contentIsHtml(bytes)) {
+				throw notFound(candidate, url);
+			}
+			if (cachingPolicy.cacheAllowed()) {
+				offlineMetadataCache.put(url, bytes);
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * A mirror which doesn't have the url fails over to the next candidate, only the original url
+	 * not having it is cached as a 404.
+	 */
+	private NotFoundException notFound(String candidate, String url) throws IOException {
+		P2Mirrors.checkNotOnMirror(candidate, url);
+		if (cachingPolicy.cacheAllowed()) {
+			offlineMetadataCache.put404(url);
+		}
+		return new NotFoundException(url);
+	}
+
 	@SuppressWarnings("serial")
 	static class NotFoundException extends Exception {
 		NotFoundException(String url) {
@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * Copyright (c) 2022-2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Packs the p2 metadata, query caches and bundle pool of {@link CacheLocations#p2data()} into a
+ * single indexed file, so that a warmed cache can be moved between machines (or into a Docker
+ * layer) as one file instead of thousands of small ones.
+ *
+ * <p>Once imported to {@link CacheLocations#p2archive()}, the archive is read in place: {@link
+ * OfflineCache} maps its log straight out of the archive, the query cache reads its entries from a
+ * memory-mapped region of the archive, and a jar is copied out of it into the bundle pool only when
+ * it is first needed.
+ *
+ * <p>The file is the magic header, then the content of every entry back-to-back, then an index of
+ * each entry's path (relative to {@code p2data}), offset and length, and finally the offset of the
+ * index followed by the magic again.
+ *
+ * <pre>
+ * java -cp solstice.jar dev.equo.solstice.p2.P2DataArchive export p2-data.archive
+ * java -cp solstice.jar dev.equo.solstice.p2.P2DataArchive import p2-data.archive
+ * </pre>
+ */
+public class P2DataArchive {
+	private static final byte[] MAGIC = "EQUOP2A1".getBytes(StandardCharsets.US_ASCII);
+	/** The parts of {@code p2data} which are exported, everything else is derived or transient. */
+	private static final String OFFLINE = "metadata/offline";
+
+	private static final List<String> EXPORTED = List.of(OFFLINE, "queries", "bundle-pool");
+
+	/**
+	 * Writes an archive of everything in {@link CacheLocations#p2data()} to the given file. The
+	 * offline metadata cache is copied first, while holding the same lock as a {@link P2Client}, so
+	 * that it isn't changing underneath us.
+	 */
+	public static void export(File archive) throws IOException {
+		var p2data = CacheLocations.p2data();
+		var lock = new LockFile(CacheLocations.p2metadata());
+		try {
+			var files = new ArrayList<File>();
+			addExported(new File(p2data, OFFLINE), files);
+			int lockedFiles = files.size();
+			for (var exported : EXPORTED.subList(1, EXPORTED.size())) {
+				addExported(new File(p2data, exported), files);
+			}
+			var parent = archive.getAbsoluteFile().getParentFile();
+			FileMisc.mkdirs(parent);
+			var temp = File.createTempFile(archive.getName(), ".tmp", parent);
+			try {
+				try (var output =
+						new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+					output.write(MAGIC);
+					long offset = MAGIC.length;
+					var offsets = new long[files.size()];
+					var lengths = new long[files.size()];
+					for (int i = 0; i < files.size(); ++i) {
+						if (i == lockedFiles) {
+							// the query caches and bundle pool are written atomically, no need to block clients
+							lock.close();
+							lock = null;
+						}
+						offsets[i] = offset;
+						lengths[i] = Files.copy(files.get(i).toPath(), output);
+						offset += lengths[i];
+					}
+					output.writeInt(files.size());
+					for (int i = 0; i < files.size(); ++i) {
+						output.writeUTF(relativePath(p2data, files.get(i)));
+						output.writeLong(offsets[i]);
+						output.writeLong(lengths[i]);
+					}
+					output.writeLong(offset);
+					output.write(MAGIC);
+				}
+				Files.move(
+						temp.toPath(),
+						archive.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp.toPath());
+			}
+		} finally {
+			if (lock != null) {
+				lock.close();
+			}
+		}
+	}
+
+	private static void addExported(File dir, List<File> files) throws IOException {
+		if (dir.isDirectory()) {
+			try (Stream<Path> walk = Files.walk(dir.toPath())) {
+				walk.map(Path::toFile)
+						.filter(File::isFile)
+						.filter(file -> isExported(file.getName()))
+						.sorted()
+						.forEach(files::add);
+			}
+		}
+	}
+
+	/**
+	 * Installs the given archive as {@link CacheLocations#p2archive()}, after checking that it is
+	 * one. Nothing is unpacked, entries are read out of it as they're needed.
+	 *
+	 * <p>Same as the log of {@link OfflineCache}, an installed archive is never replaced in place,
+	 * because this or another process may have it mapped, and a mapped file can't be replaced on
+	 * Windows. Each import is the next generation instead, {@code p2-data.archive-1}, {@code -2} and
+	 * so on, the newest of which is current. The older ones are deleted once nothing maps them.
+	 */
+	public static void importFrom(File archive) throws IOException {
+		new P2DataArchive(archive).close();
+		var base = CacheLocations.p2archive().getAbsoluteFile();
+		FileMisc.mkdirs(base.getParentFile());
+		var temp = File.createTempFile(base.getName(), ".tmp", base.getParentFile());
+		try {
+			Files.copy(archive.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			synchronized (P2DataArchive.class) {
+				long generation = latestGeneration(base);
+				while (true) {
+					try {
+						Files.move(
+								temp.toPath(),
+								generationFile(base, ++generation).toPath(),
+								StandardCopyOption.ATOMIC_MOVE);
+						break;
+					} catch (FileAlreadyExistsException e) {
+						// another process imported at the same time
+					}
+				}
+				current = null;
+			}
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		// opening the new generation deletes the ones it supersedes
+		current();
+	}
+
+	private static P2DataArchive current;
+
+	/**
+	 * The newest generation of {@link CacheLocations#p2archive()}, or null if there isn't one. Same
+	 * as {@link #importFrom}, an archive which has been superseded is forgotten rather than closed,
+	 * because other threads may be in the middle of reading it, and its channel is closed once it's
+	 * unreachable.
+	 */
+	static synchronized @Nullable P2DataArchive current() {
+		var base = CacheLocations.p2archive().getAbsoluteFile();
+		var file = generationFile(base, latestGeneration(base));
+		if (current != null && !current.isStillAt(file)) {
+			current = null;
+		}
+		if (current == null && file.isFile()) {
+			try {
+				current = new P2DataArchive(file);
+			} catch (IOException e) {
+				// a broken archive is the same as no archive, everything comes from the network instead
+				return null;
+			}
+			deleteOtherGenerations(base, file);
+		}
+		return current;
+	}
+
+	private static File generationFile(File base, long generation) {
+		return generation == 0
+				? base
+				: new File(base.getParentFile(), base.getName() + "-" + generation);
+	}
+
+	private static Pattern generationPattern(File base) {
+		return Pattern.compile(Pattern.quote(base.getName()) + "(?:-(\\d+))?");
+	}
+
+	/** The newest generation of the archive on disk, 0 being the archive itself. */
+	private static long latestGeneration(File base) {
+		var pattern = generationPattern(base);
+		long latest = 0;
+		String[] names = base.getParentFile().list();
+		if (names != null) {
+			for (var name : names) {
+				var matcher = pattern.matcher(name);
+				if (matcher.matches() && matcher.group(1) != null) {
+					latest = Math.max(latest, Long.parseLong(matcher.group(1)));
+				}
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Deletes every generation of the archive except {@code keep}. One which is still mapped can't be
+	 * deleted on Windows, so that waits until a later try.
+	 */
+	private static void deleteOtherGenerations(File base, File keep) {
+		var pattern = generationPattern(base);
+		String[] names = base.getParentFile().list();
+		if (names == null) {
+			return;
+		}
+		for (var name : names) {
+			if (pattern.matcher(name).matches() && !name.equals(keep.getName())) {
+				try {
+					Files.deleteIfExists(new File(base.getParentFile(), name).toPath());
+				} catch (IOException e) {
+					// still mapped, try again next time
+				}
+			}
+		}
+	}
+
+	private final File file;
+	private final long lastModified, length;
+	private final FileChannel channel;
+	/** Maps the path of each entry to its offset and length. */
+	private final Map<String, long[]> index = new HashMap<>();
+
+	private P2DataArchive(File file) throws IOException {
+		this.file = file;
+		this.lastModified = file.lastModified();
+		this.length = file.length();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			long trailerStart = size - Long.BYTES - MAGIC.length;
+			if (trailerStart < MAGIC.length || !hasMagic(map(0, MAGIC.length))) {
+				throw new IOException(file + " is not a p2 data archive");
+			}
+			var trailer = map(trailerStart, Long.BYTES + MAGIC.length);
+			long indexOffset = trailer.getLong();
+			if (!hasMagic(trailer) || indexOffset < MAGIC.length || indexOffset > trailerStart) {
+				throw new IOException(file + " is not a p2 data archive");
+			}
+			var indexBytes = new byte[Math.toIntExact(trailerStart - indexOffset)];
+			map(indexOffset, indexBytes.length).get(indexBytes);
+			var input = new DataInputStream(new ByteArrayInputStream(indexBytes));
+			int count = input.readInt();
+			for (int i = 0; i < count; ++i) {
+				var path = input.readUTF();
+				index.put(path, new long[] {input.readLong(), input.readLong()});
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/** Returns the content of the given file within {@code p2data}, or null if it isn't archived. */
+	@Nullable
+	byte[] read(File file) throws IOException {
+		var entry = entry(file);
+		if (entry == null) {
+			return null;
+		}
+		var content = new byte[Math.toIntExact(entry[1])];
+		map(entry[0], content.length).get(content);
+		return content;
+	}
+
+	/** Returns the given file within {@code p2data} as a string, or null if it isn't archived. */
+	@Nullable
+	String readToken(File file) throws IOException {
+		var content = read(file);
+		return content == null ? null : new String(content, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Maps the given file within {@code p2data} straight out of the archive, or returns null if it
+	 * isn't archived. A single mapping can't be bigger than 2GB, so for a bigger file only the first
+	 * 2GB are mapped, and the rest has to be {@link #read(File, long, int)}.
+	 */
+	@Nullable
+	ByteBuffer map(File file) throws IOException {
+		var entry = entry(file);
+		return entry == null ? null : map(entry[0], Math.min(entry[1], Integer.MAX_VALUE));
+	}
+
+	/** The length of the given file within {@code p2data}, or -1 if it isn't archived. */
+	long length(File file) {
+		var entry = entry(file);
+		return entry == null ? -1 : entry[1];
+	}
+
+	/** Reads {@code length} bytes at {@code offset} of the given archived file within p2data. */
+	ByteBuffer read(File file, long offset, int length) throws IOException {
+		var entry = entry(file);
+		if (entry == null || offset < 0 || offset + length > entry[1]) {
+			throw new EOFException(file + " isn't archived that far");
+		}
+		var buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, entry[0] + offset + buffer.position()) < 0) {
+				throw new EOFException(this.file.getAbsolutePath());
+			}
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * Copies the given file within {@code p2data} out of the archive to where it belongs, and
+	 * returns false if it isn't archived.
+	 */
+	boolean extract(File file) throws IOException {
+		var entry = entry(file);
+		if (entry == null) {
+			return false;
+		}
+		var temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			try (var output = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				long copied = 0;
+				while (copied < entry[1]) {
+					copied += channel.transferTo(entry[0] + copied, entry[1] - copied, output);
+				}
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException e) {
+				// another thread or process extracted it first
+			}
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		return true;
+	}
+
+	private @Nullable long[] entry(File file) {
+		var path = relativePath(CacheLocations.p2data(), file);
+		return path == null ? null : index.get(path);
+	}
+
+	private ByteBuffer map(long offset, long size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+	}
+
+	private boolean isStillAt(File file) {
+		return this.file.equals(file)
+				&& file.lastModified() == lastModified
+				&& file.length() == length;
+	}
+
+	private void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw Unchecked.wrap(e);
+		}
+	}
+
+	private static boolean hasMagic(ByteBuffer buffer) {
+		var magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		return Arrays.equals(MAGIC, magic);
+	}
+
+	private static boolean isExported(String name) {
+		return !name.endsWith(".tmp") && !name.contains(SIGNATURE_STRIPPED);
+	}
+
+	private static final String SIGNATURE_STRIPPED = "-stripped-sig.jar";
+
+	/** The path of the file relative to {@code p2data}, with {@code /} separators. */
+	private static @Nullable String relativePath(File p2data, File file) {
+		var root = p2data.getAbsoluteFile().toPath().normalize();
+		var path = file.getAbsoluteFile().toPath().normalize();
+		if (!path.startsWith(root)) {
+			return null;
+		}
+		return Stream.of(root.relativize(path).toString().split("[/\\\\]"))
+				.collect(Collectors.joining("/"));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 2 && "export".equals(args[0])) {
+			export(new File(args[1]));
+		} else if (args.length == 2 && "import".equals(args[0])) {
+			importFrom(new File(args[1]));
+		} else {
+			throw new IllegalArgumentException("Expected `export <file>` or `import <file>`");
+		}
+	}
+}
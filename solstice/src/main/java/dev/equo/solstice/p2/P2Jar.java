@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import java.io.Serializable;
+
+/**
+ * Everything needed to find or download a {@link P2Unit}'s jar, without the rest of the unit, so
+ * that a {@link P2QueryResult} can be stored in the query cache and download its jars later.
+ */
+class P2Jar implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	final String repoUrl;
+	final String id;
+	final String version;
+
+	P2Jar(P2Unit unit) {
+		this.repoUrl = unit.getRepoUrl();
+		this.id = unit.id;
+		this.version = unit.version.toString();
+	}
+
+	String getJarUrl() {
+		return repoUrl + "plugins/" + getFilename();
+	}
+
+	String getFilename() {
+		return id + "_" + version + ".jar";
+	}
+}
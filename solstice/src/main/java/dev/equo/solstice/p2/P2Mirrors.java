@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import okhttp3.OkHttpClient;
+
+/**
+ * Sends p2 requests to mirrors of a repository, such as a local Nexus or Artifactory proxy.
+ *
+ * <p>Mirrors are configured by url prefix, either with {@link #add(String, String...)} or in
+ * {@link CacheLocations#p2mirrors()}, where each key is a prefix and each value is a
+ * comma-separated list of mirrors for it, e.g.
+ *
+ * <pre>
+ * https\://download.eclipse.org/=https\://nexus.example.com/repository/eclipse/
+ * </pre>
+ *
+ * The first time a prefix is used, every mirror and the original are probed in parallel, and
+ * requests go to the first healthy one to answer while the rest finish, then to the fastest. If a
+ * request gets a 5xx or can't connect, it fails over to the next candidate, and the failed one is
+ * demoted. If a mirror doesn't have the url (a 404, or an html page where there should be
+ * metadata), the request fails over too, but only the original's 404 is an answer. Everything is
+ * cached under the original url, so caches don't care which mirror filled them.
+ *
+ * <p>A daemon can outlive the network it probed, so a ranking and its demotions only last for
+ * {@link #RANKING_TTL_MINUTES}, after which the candidates are probed again. The config file is
+ * read again whenever it changes, and a prefix whose mirrors changed is probed again right away.
+ */
+public class P2Mirrors {
+	private P2Mirrors() {}
+
+	private static final int PROBE_TIMEOUT_MS = 3_000;
+	/** Probes block on the network, so they don't belong on the common pool. */
+	private static final ExecutorService probes =
+			Executors.newCachedThreadPool(
+					runnable -> {
+						var thread = new Thread(runnable, "equo-p2-mirror-probe");
+						thread.setDaemon(true);
+						return thread;
+					});
+	/** Probes are cheap, so they don't share the download client or its connection pool. */
+	private static final OkHttpClient probeClient =
+			new OkHttpClient.Builder()
+					.connectTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+					.readTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+					.callTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+					.build();
+
+	/** How long the probes and failures of a prefix rank its candidates before it's probed again. */
+	static final long RANKING_TTL_MINUTES = 10;
+
+	/** Url prefixes to the mirrors which were added to them with {@link #add}. */
+	private static final TreeMap<String, List<String>> added = new TreeMap<>();
+	/** Url prefix to its mirrors from the config file and {@link #add}, null when it's outdated. */
+	private static TreeMap<String, List<String>> mirrors;
+	/** The config file which {@link #mirrors} was read from, and its length and timestamp then. */
+	private static File configFile;
+
+	private static long configLength, configLastModified;
+	/** Url prefix to how its candidates rank, which may still be probing. */
+	private static final Map<String, Ranking> ranked = new ConcurrentHashMap<>();
+
+	/** Adds mirrors for every url which starts with the given prefix. */
+	public static synchronized void add(String prefix, String... mirrorPrefixes) {
+		added.merge(prefix, List.of(mirrorPrefixes), P2Mirrors::concat);
+		mirrors = null;
+	}
+
+	/**
+	 * Removes every mirror which was added with {@link #add}, and forgets every probe. Those in the
+	 * config file stay.
+	 */
+	public static synchronized void clear() {
+		added.clear();
+		mirrors = null;
+		ranked.clear();
+	}
+
+	private static synchronized TreeMap<String, List<String>> config() {
+		var file = CacheLocations.p2mirrors();
+		if (mirrors == null
+				|| !file.equals(configFile)
+				|| file.length() != configLength
+				|| file.lastModified() != configLastModified) {
+			configFile = file;
+			configLength = file.length();
+			configLastModified = file.lastModified();
+			mirrors = new TreeMap<>();
+			if (file.isFile()) {
+				var props = new Properties();
+				try (var input = new FileInputStream(file)) {
+					props.load(input);
+				} catch (IOException e) {
+					throw Unchecked.wrap(e);
+				}
+				for (var prefix : props.stringPropertyNames()) {
+					var list =
+							Arrays.stream(props.getProperty(prefix).split(","))
+									.map(String::trim)
+									.filter(mirror -> !mirror.isEmpty())
+									.collect(Collectors.toList());
+					mirrors.put(prefix, List.copyOf(list));
+				}
+			}
+			added.forEach((prefix, list) -> mirrors.merge(prefix, list, P2Mirrors::concat));
+		}
+		return mirrors;
+	}
+
+	private static List<String> concat(List<String> first, List<String> second) {
+		var list = new ArrayList<>(first);
+		list.addAll(second);
+		return List.copyOf(list);
+	}
+
+	/** The longest configured prefix of the given url, or null if it has no mirrors. */
+	private static synchronized String prefixOf(String url) {
+		String match = null;
+		for (var prefix : config().keySet()) {
+			if (url.startsWith(prefix) && (match == null || prefix.length() > match.length())) {
+				match = prefix;
+			}
+		}
+		return match;
+	}
+
+	/** The urls to try for the given url, best first. Just the url itself if it has no mirrors. */
+	static List<String> candidates(String url) {
+		var prefix = prefixOf(url);
+		return prefix == null ? List.of(url) : candidates(prefix, url);
+	}
+
+	private static List<String> candidates(String prefix, String url) {
+		var suffix = url.substring(prefix.length());
+		return ranked(prefix).stream()
+				.map(candidate -> candidate + suffix)
+				.collect(Collectors.toList());
+	}
+
+	/** The candidate prefixes for the given configured prefix, best first. */
+	private static List<String> ranked(String prefix) {
+		return ranking(prefix).order();
+	}
+
+	private static Ranking ranking(String prefix) {
+		var candidates = new ArrayList<>(mirrorsOf(prefix));
+		if (!candidates.contains(prefix)) {
+			candidates.add(prefix);
+		}
+		return ranked.compute(
+				prefix,
+				(unused, ranking) ->
+						ranking != null && ranking.candidates.equals(candidates) && !ranking.isExpired()
+								? ranking
+								: new Ranking(candidates));
+	}
+
+	private static synchronized List<String> mirrorsOf(String prefix) {
+		return config().getOrDefault(prefix, List.of());
+	}
+
+	/** The candidates of one prefix, in the order that their probes and failures put them. */
+	private static class Ranking {
+		/** The configured order, which breaks ties. */
+		final List<String> candidates;
+		/** When the probes started, see {@link #RANKING_TTL_MINUTES}. */
+		final long started = System.nanoTime();
+		/** The first candidate whose probe came back healthy, or null if none did. */
+		final CompletableFuture<String> first = new CompletableFuture<>();
+		/** Every candidate by latency, once all the probes are in. */
+		volatile List<String> byLatency;
+		/** Candidates which failed a request, in the order they failed. */
+		final Set<String> demoted = new LinkedHashSet<>();
+
+		Ranking(List<String> candidates) {
+			this.candidates = List.copyOf(candidates);
+			var latencies =
+					candidates.stream()
+							.map(
+									candidate ->
+											CompletableFuture.supplyAsync(() -> latency(candidate), probes)
+													.thenApply(
+															latency -> {
+																if (latency != Long.MAX_VALUE) {
+																	first.complete(candidate);
+																}
+																return latency;
+															}))
+							.collect(Collectors.toList());
+			CompletableFuture.allOf(latencies.toArray(new CompletableFuture[0]))
+					.whenComplete(
+							(unused, error) -> {
+								var order = new ArrayList<Integer>();
+								for (int i = 0; i < candidates.size(); ++i) {
+									order.add(i);
+								}
+								// stable, so that ties and unreachable candidates keep the configured order
+								order.sort(Comparator.comparingLong(i -> latencies.get(i).getNow(Long.MAX_VALUE)));
+								byLatency = order.stream().map(candidates::get).collect(Collectors.toList());
+								first.complete(null);
+							});
+		}
+
+		/** Waits for the first healthy probe, but not for the rest of them. */
+		List<String> order() {
+			var order = new ArrayList<String>();
+			var byLatency = this.byLatency;
+			if (byLatency != null) {
+				order.addAll(byLatency);
+			} else {
+				var fastest = first.join();
+				if (fastest != null) {
+					order.add(fastest);
+				}
+				for (var candidate : candidates) {
+					if (!candidate.equals(fastest)) {
+						order.add(candidate);
+					}
+				}
+			}
+			synchronized (this) {
+				order.removeAll(demoted);
+				order.addAll(demoted);
+			}
+			return order;
+		}
+
+		boolean isExpired() {
+			return System.nanoTime() - started > TimeUnit.MINUTES.toNanos(RANKING_TTL_MINUTES);
+		}
+
+		synchronized void demote(String candidate) {
+			demoted.remove(candidate);
+			demoted.add(candidate);
+		}
+	}
+
+	/** Nanoseconds for the candidate to answer with anything but a 5xx, or max if it didn't. */
+	private static long latency(String candidate) {
+		var request = P2Client.buildRequest(candidate).newBuilder().head().build();
+		long start = System.nanoTime();
+		try (var response = probeClient.newCall(request).execute()) {
+			return response.code() >= 500 ? Long.MAX_VALUE : System.nanoTime() - start;
+		} catch (IOException | RuntimeException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/** Moves the given candidate to the back of the line for its prefix. */
+	private static void demote(String prefix, String candidate) {
+		var ranking = ranked.get(prefix);
+		if (ranking != null) {
+			ranking.demote(candidate);
+		}
+	}
+
+	/** A request against one candidate url. */
+	interface Attempt<T, E extends Exception> {
+		T fetch(String candidate) throws IOException, E;
+	}
+
+	/**
+	 * Runs the attempt against each candidate for the given url until one of them doesn't throw an
+	 * {@link IOException}. If none of them work it rethrows the first {@link UnknownHostException},
+	 * so that callers can tell they might be offline even if a mirror which was reachable didn't have
+	 * the url, and otherwise the last failure. A candidate which threw {@link NotOnMirror} is
+	 * healthy, so it isn't demoted.
+	 */
+	static <T, E extends Exception> T fetch(String url, Attempt<T, E> attempt)
+			throws IOException, E {
+		var prefix = prefixOf(url);
+		if (prefix == null) {
+			return attempt.fetch(url);
+		}
+		var suffix = url.substring(prefix.length());
+		var failures = new ArrayList<IOException>();
+		for (var candidate : ranked(prefix)) {
+			try {
+				return attempt.fetch(candidate + suffix);
+			} catch (IOException e) {
+				failures.add(e);
+				if (!(e instanceof NotOnMirror)) {
+					demote(prefix, candidate);
+				}
+			}
+		}
+		var thrown =
+				failures.stream()
+						.filter(failure -> failure instanceof UnknownHostException)
+						.findFirst()
+						.orElse(failures.get(failures.size() - 1));
+		for (var failure : failures) {
+			if (failure != thrown) {
+				thrown.addSuppressed(failure);
+			}
+		}
+		throw thrown;
+	}
+
+	/** Thrown by an {@link Attempt} when the server answered with a 5xx, so that it fails over. */
+	@SuppressWarnings("serial")
+	static class ServerError extends IOException {
+		ServerError(int code, String url) {
+			super("Received " + code + " from " + url);
+		}
+	}
+
+	/** Throws {@link ServerError} if the code is a 5xx. */
+	static void checkServerError(int code, String url) throws ServerError {
+		if (code >= 500) {
+			throw new ServerError(code, url);
+		}
+	}
+
+	/**
+	 * Thrown by an {@link Attempt} when a mirror doesn't have what the original url has, so that it
+	 * fails over instead of being taken as the answer.
+	 */
+	@SuppressWarnings("serial")
+	static class NotOnMirror extends IOException {
+		NotOnMirror(String candidate) {
+			super(candidate + " is missing from the mirror");
+		}
+	}
+
+	/**
+	 * Call when the candidate doesn't have the url. Throws {@link NotOnMirror} if the candidate is a
+	 * mirror, and returns if it's the original url, whose answer is final.
+	 */
+	static void checkNotOnMirror(String candidate, String url) throws NotOnMirror {
+		if (!candidate.equals(url)) {
+			throw new NotOnMirror(candidate);
+		}
+	}
+}
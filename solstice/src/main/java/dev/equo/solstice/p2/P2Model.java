@@ -14,14 +14,18 @@
 package dev.equo.solstice.p2;
 
 import com.diffplug.common.swt.os.SwtPlatform;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.function.Consumer;
 
-public class P2Model {
+public class P2Model implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	private final TreeSet<String> p2repo = new TreeSet<>();
 	private final TreeSet<String> install = new TreeSet<>();
 	private final TreeMap<String, Filter> filters = new TreeMap<>();
@@ -70,6 +74,9 @@ public class P2Model {
 		p2repo.add(p2url);
 	}
 
+	/** The name of the filter which {@link #applyNativeFilterIfNoPlatformFilter()} adds. */
+	static final String PLATFORM_RUNNING_FILTER = "platform-specific-for-running";
+
 	/**
 	 * Applies a filter named `platform-specific-for-running` which selects artifacts for the running
 	 * platform iff there are no other platform-related filters so far.
@@ -83,7 +90,7 @@ public class P2Model {
 												|| filter.props.containsKey(OSGI_WS)
 												|| filter.props.containsKey(OSGI_ARCH));
 		if (!hasAnyPlatformFilter) {
-			addFilterAndValidate("platform-specific-for-running", new P2Model.Filter().platformRunning());
+			addFilterAndValidate(PLATFORM_RUNNING_FILTER, new P2Model.Filter().platformRunning());
 		}
 	}
 
@@ -107,6 +114,15 @@ public class P2Model {
 				session.populateFrom(client, repo);
 			}
 		}
+		return queryRaw(session);
+	}
+
+	/**
+	 * Queries a session which has already been populated from every {@link #getP2repo()}. The session
+	 * is only read, so it can be shared by any number of models with the same repos.
+	 */
+	public P2Query queryRaw(P2Session session) {
+		validateFilters();
 		var query = session.query();
 		for (var filter : filters.values()) {
 			filter.exclude.forEach(query::exclude);
@@ -125,16 +141,38 @@ public class P2Model {
 	}
 
 	public P2QueryResult query(P2ClientCache clientCachingPolicy, P2QueryCache queryCachingPolicy) {
+		return query(
+				clientCachingPolicy,
+				queryCachingPolicy,
+				() -> {
+					var query = queryRaw(clientCachingPolicy);
+					return new P2QueryResult(query, clientCachingPolicy, useMavenCentral);
+				});
+	}
+
+	/**
+	 * Same as {@link #query(P2ClientCache, P2QueryCache)}, except that the repos are parsed by the
+	 * given {@link SessionCache}, which many models can share.
+	 */
+	public P2QueryResult query(SessionCache sessions, P2QueryCache queryCachingPolicy) {
+		return query(sessions.clientCaching, queryCachingPolicy, () -> sessions.resolve(this));
+	}
+
+	private P2QueryResult query(
+			P2ClientCache clientCachingPolicy,
+			P2QueryCache queryCachingPolicy,
+			Callable<P2QueryResult> compute) {
 		if (queryCachingPolicy.allowRead()) {
 			QueryCacheOnDisk onDisk = new QueryCacheOnDisk(CacheLocations.p2Queries(), this);
 			var queryResult = onDisk.get();
 			if (queryResult != null) {
+				// any jars which have gone missing since are downloaded again when they're needed
+				queryResult.setCachingPolicy(clientCachingPolicy);
 				return queryResult;
 			}
 		}
 		try {
-			var query = queryRaw(clientCachingPolicy);
-			var queryResult = new P2QueryResult(query, clientCachingPolicy, this.useMavenCentral);
+			var queryResult = compute.call();
 			if (queryCachingPolicy.allowWrite()) {
 				QueryCacheOnDisk onDisk = new QueryCacheOnDisk(CacheLocations.p2Queries(), this);
 				onDisk.put(queryResult);
@@ -257,7 +295,9 @@ public class P2Model {
 		return Objects.hash(p2repo, install, filters, pureMaven);
 	}
 
-	public static class Filter {
+	public static class Filter implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		public static Filter create(Consumer<Filter> filter) {
 			var f = new Filter();
 			filter.accept(f);
@@ -14,6 +14,7 @@
 package dev.equo.solstice.p2;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 import javax.xml.transform.TransformerException;
 
 public class P2Multitool {
@@ -39,10 +40,19 @@ public class P2Multitool {
 	}
 
 	public void dump(P2Model model, P2ClientCache caching) throws Exception {
+		dump(model, () -> model.queryRaw(caching));
+	}
+
+	/** Same as {@link #dump(P2Model, P2ClientCache)}, but with a session shared by the build. */
+	public void dump(P2Model model, SessionCache sessions) throws Exception {
+		dump(model, () -> model.queryRaw(sessions.session(model.getP2repo())));
+	}
+
+	private void dump(P2Model model, Callable<P2Query> queryRaw) throws Exception {
 		if (request) {
 			request(model);
 		} else {
-			var query = model.queryRaw(caching);
+			var query = queryRaw.call();
 			if (installed) {
 				installed(query);
 			} else if (problems) {
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2022-2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import com.diffplug.common.swt.os.SwtPlatform;
+import dev.equo.solstice.NestedJars;
+import dev.equo.solstice.SignedJars;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Fills {@link CacheLocations#p2data()} ahead of time, so that a CI image which is built once can
+ * run every later job without touching the network. For each model it resolves every platform,
+ * writes the query caches, downloads every p2 jar in parallel, strips their signatures and extracts
+ * their nested jars.
+ *
+ * <pre>
+ * java -cp solstice.jar:... dev.equo.solstice.p2.P2Prefetch -p2repo URL -install ID [-install ID]
+ * </pre>
+ */
+public class P2Prefetch {
+	/**
+	 * Returns a copy of the model for every platform, or just the model itself if it chose its
+	 * platforms explicitly. Each copy keeps the filter name of {@link
+	 * P2Model#applyNativeFilterIfNoPlatformFilter()}, so its query cache is exactly the one which a
+	 * build running on that platform will look for.
+	 */
+	public static List<P2Model> forEveryPlatform(P2Model model) {
+		if (!model.getFilters().containsKey(P2Model.PLATFORM_RUNNING_FILTER)) {
+			return List.of(model);
+		}
+		var models = new ArrayList<P2Model>();
+		for (var platform : SwtPlatform.getAll()) {
+			var copy = model.deepCopy();
+			copy.getFilters()
+					.put(P2Model.PLATFORM_RUNNING_FILTER, new P2Model.Filter().platform(platform));
+			models.add(copy);
+		}
+		return models;
+	}
+
+	/**
+	 * Queries every model, downloads all of their p2 jars at once, and prepares them the way a
+	 * launch or a {@code p2deps} configuration would. Returns the results in the same order as the
+	 * models, so the caller can fetch their maven coordinates too.
+	 */
+	public static List<P2QueryResult> prefetch(
+			SessionCache sessions, P2QueryCache queryCaching, List<P2Model> models) {
+		// the models share their parsed repos, and each one starts downloading as soon as it resolves
+		var results =
+				models.parallelStream()
+						.map(
+								model -> {
+									var result = sessions.query(model, queryCaching);
+									result.downloadJarsNotOnMavenCentral();
+									return result;
+								})
+						.collect(Collectors.toList());
+		var jars = new TreeSet<File>();
+		for (var result : results) {
+			jars.addAll(result.getJarsNotOnMavenCentral());
+		}
+		var prepared = new ArrayList<File>(jars);
+		SignedJars.stripIfNecessary(prepared);
+		for (var nested : NestedJars.inFiles(prepared).extractAllNestedJars()) {
+			prepared.add(nested.getValue());
+		}
+		SignedJars.stripIfNecessary(prepared);
+		return results;
+	}
+
+	public static void main(String[] args) {
+		var model = new P2Model();
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			if ("-p2repo".equals(args[i])) {
+				model.addP2Repo(args[i + 1]);
+			} else if ("-install".equals(args[i])) {
+				model.getInstall().add(args[i + 1]);
+			} else {
+				throw new IllegalArgumentException("Expected -p2repo or -install, got " + args[i]);
+			}
+		}
+		model.applyNativeFilterIfNoPlatformFilter();
+		var models = forEveryPlatform(model);
+		try (var sessions =
+				new SessionCache(P2ClientCache.PREFER_OFFLINE, SessionCache.DEFAULT_MAX_CACHED_UNITS)) {
+			var results = prefetch(sessions, P2QueryCache.ALLOW, models);
+			var jars = new TreeSet<File>();
+			results.forEach(result -> jars.addAll(result.getJarsNotOnMavenCentral()));
+			System.out.println(
+					"Prefetched "
+							+ jars.size()
+							+ " p2 jars for "
+							+ models.size()
+							+ " platforms into "
+							+ CacheLocations.p2data());
+		}
+	}
+}
@@ -14,36 +14,92 @@
 package dev.equo.solstice.p2;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * The result of a {@link P2Model} query. The maven coordinates and the destination of every p2 jar
+ * are known as soon as the query has been resolved, but the p2 jars themselves aren't downloaded
+ * until someone asks for them, so a caller which only needs the coordinates never downloads them.
+ * Once asked for, they are downloaded in the background several at a time, so a build tool can
+ * resolve the maven coordinates at the same time.
+ */
 public class P2QueryResult implements Serializable {
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 
 	private final List<String> mavenCoordinates;
-	private final List<File> downloadedP2Jars;
+	private final List<P2Jar> p2Jars;
+
+	private transient P2ClientCache cachingPolicy;
+	private transient List<File> destinations;
+	private transient CompletableFuture<List<File>> downloads;
 
 	P2QueryResult(P2Query query, P2ClientCache cachingPolicy, Boolean useMavenCentral) {
 		this.mavenCoordinates = new ArrayList<>(query.getJarsOnMavenCentral(useMavenCentral));
-		this.downloadedP2Jars = new ArrayList<>();
-		try (var client = new P2Client(cachingPolicy)) {
-			for (P2Unit unit : query.getJarsNotOnMavenCentral(useMavenCentral)) {
-				downloadedP2Jars.add(client.download(unit));
-			}
-		} catch (IOException e) {
-			throw Unchecked.wrap(e);
+		this.p2Jars = new ArrayList<>();
+		for (P2Unit unit : query.getJarsNotOnMavenCentral(useMavenCentral)) {
+			p2Jars.add(new P2Jar(unit));
 		}
+		this.cachingPolicy = cachingPolicy;
+	}
+
+	/** Sets the caching policy of a result which was read from the query cache. */
+	void setCachingPolicy(P2ClientCache cachingPolicy) {
+		this.cachingPolicy = cachingPolicy;
 	}
 
 	public List<String> getJarsOnMavenCentral() {
 		return Collections.unmodifiableList(mavenCoordinates);
 	}
 
+	/**
+	 * Where each p2 jar is, or will be once it has been downloaded. Doesn't download anything, so
+	 * it's only useful for deciding what else to resolve from the names of the jars.
+	 */
+	public synchronized List<File> getJarsNotOnMavenCentralDestinations() {
+		if (destinations == null) {
+			var jarCache = new JarCache(cachingPolicy);
+			var files = new ArrayList<File>(p2Jars.size());
+			for (var p2Jar : p2Jars) {
+				files.add(jarCache.fileFor(p2Jar));
+			}
+			destinations = Collections.unmodifiableList(files);
+		}
+		return destinations;
+	}
+
+	/**
+	 * Starts downloading every p2 jar which isn't on disk yet, if that hasn't started already, and
+	 * returns a future which completes once they all are. If a previous attempt failed, this starts
+	 * over, and the jars which did make it to disk aren't downloaded again.
+	 */
+	public synchronized CompletableFuture<List<File>> downloadJarsNotOnMavenCentral() {
+		if (downloads == null || downloads.isCompletedExceptionally()) {
+			var jarCache = new JarCache(cachingPolicy);
+			var futures = new CompletableFuture<?>[p2Jars.size()];
+			for (int i = 0; i < futures.length; ++i) {
+				futures[i] = jarCache.downloadAsync(p2Jars.get(i));
+			}
+			var jars = getJarsNotOnMavenCentralDestinations();
+			downloads = CompletableFuture.allOf(futures).thenApply(unused -> jars);
+		}
+		return downloads;
+	}
+
+	/** Downloads every p2 jar which isn't on disk yet, then returns them. */
 	public List<File> getJarsNotOnMavenCentral() {
-		return Collections.unmodifiableList(downloadedP2Jars);
+		try {
+			return downloadJarsNotOnMavenCentral().join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
 	}
 }
@@ -57,6 +57,11 @@ public class P2Session {
 		throw new IllegalArgumentException("No such unit id " + id);
 	}
 
+	/** The number of units in this session, which is roughly proportional to its memory use. */
+	public int getUnitCount() {
+		return units.size();
+	}
+
 	/** Creates a new {@link P2Query} against this session. */
 	public P2Query query() {
 		return new P2Query(this);
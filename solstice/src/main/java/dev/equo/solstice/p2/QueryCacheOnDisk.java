@@ -16,6 +16,7 @@ package dev.equo.solstice.p2;
 import dev.equo.solstice.NestedJars;
 import dev.equo.solstice.SerializableMisc;
 import java.io.File;
+import java.io.IOException;
 import java.util.Optional;
 import javax.annotation.Nullable;
 
@@ -36,7 +37,7 @@ class QueryCacheOnDisk {
 	}
 
 	private static final String VERSION = "version";
-	private static final String VERSION_VALUE = "1";
+	private static final String VERSION_VALUE = "2";
 
 	private static final String CONTENT = "content";
 
@@ -44,9 +45,20 @@ class QueryCacheOnDisk {
 		var dir = new File(rootDir, OfflineCache.filenameSafe(key));
 		if (dir.isDirectory()) {
 			return SerializableMisc.fromFile(P2QueryResult.class, new File(dir, CONTENT));
-		} else {
+		}
+		var archive = P2DataArchive.current();
+		if (archive == null) {
 			return null;
 		}
+		try {
+			if (!VERSION_VALUE.equals(archive.readToken(new File(rootDir, VERSION)))) {
+				return null;
+			}
+			var content = archive.read(new File(dir, CONTENT));
+			return content == null ? null : SerializableMisc.fromBytes(P2QueryResult.class, content);
+		} catch (IOException e) {
+			throw Unchecked.wrap(e);
+		}
 	}
 
 	public void put(P2QueryResult query) {
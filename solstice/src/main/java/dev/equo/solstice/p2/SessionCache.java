@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shares one {@link P2Client} and the parsed {@link P2Session} for each set of p2 repos between
+ * any number of concurrent queries, so that a build tool can resolve many models at once while
+ * parsing each set of repos only once.
+ *
+ * <p>A session is only read once it has been populated, so any number of queries can use it
+ * concurrently. The client is only open while some thread is parsing repos, so the p2 cache's
+ * lockfile isn't held by a cache which is sitting idle. Jars are downloaded by the {@link
+ * P2QueryResult} itself, once they're needed.
+ *
+ * <p>Parsed sessions are kept in least-recently-used order, and once they add up to more than
+ * {@code maxCachedUnits} units the least recently used are dropped. The most recently used session
+ * is always kept.
+ */
+public class SessionCache implements AutoCloseable {
+	/** A recent Eclipse release repo is ~10k units, and a simultaneous release is ~50k. */
+	public static final int DEFAULT_MAX_CACHED_UNITS = 200_000;
+
+	final P2ClientCache clientCaching;
+	private final int maxCachedUnits;
+
+	/** Guarded by itself, in access order so the eldest entry is the least recently used. */
+	private final LinkedHashMap<List<String>, CompletableFuture<P2Session>> sessions =
+			new LinkedHashMap<>(16, 0.75f, true);
+
+	private P2Client client;
+	private int clientUsers = 0;
+
+	public SessionCache(P2ClientCache clientCaching, int maxCachedUnits) {
+		this.clientCaching = clientCaching;
+		this.maxCachedUnits = maxCachedUnits;
+	}
+
+	/** Queries the given model, parsing its repos only if no other query has already. */
+	public P2QueryResult query(P2Model model, P2QueryCache queryCaching) {
+		return model.query(this, queryCaching);
+	}
+
+	/** Resolves the model without looking at the query cache. */
+	P2QueryResult resolve(P2Model model) {
+		var query = model.queryRaw(session(model.getP2repo()));
+		return new P2QueryResult(query, clientCaching, model.useMavenCentral);
+	}
+
+	/** Returns the session populated from the given repos, parsing them if necessary. */
+	public P2Session session(TreeSet<String> repos) {
+		var key = List.copyOf(repos);
+		CompletableFuture<P2Session> existing;
+		var future = new CompletableFuture<P2Session>();
+		synchronized (sessions) {
+			existing = sessions.get(key);
+			if (existing == null) {
+				sessions.put(key, future);
+			}
+		}
+		if (existing != null) {
+			// wait outside the lock, the thread populating it needs the lock to finish
+			return existing.join();
+		}
+		var client = acquireClient();
+		try {
+			var session = new P2Session();
+			for (var repo : repos) {
+				session.populateFrom(client, repo);
+			}
+			future.complete(session);
+			evictLeastRecentlyUsed();
+			return session;
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+			synchronized (sessions) {
+				sessions.remove(key, future);
+			}
+			throw Unchecked.wrap(e);
+		} finally {
+			releaseClient();
+		}
+	}
+
+	/** Drops the least recently used sessions until the rest fit within the unit budget. */
+	private void evictLeastRecentlyUsed() {
+		synchronized (sessions) {
+			var newestFirst = new ArrayList<>(sessions.entrySet());
+			Collections.reverse(newestFirst);
+			int totalUnits = 0;
+			boolean isNewest = true;
+			for (var entry : newestFirst) {
+				var future = entry.getValue();
+				if (!future.isDone() || future.isCompletedExceptionally()) {
+					// still being populated by another thread
+					continue;
+				}
+				totalUnits += future.join().getUnitCount();
+				if (totalUnits > maxCachedUnits && !isNewest) {
+					sessions.remove(entry.getKey());
+				}
+				isNewest = false;
+			}
+		}
+	}
+
+	private synchronized P2Client acquireClient() {
+		if (clientUsers == 0) {
+			try {
+				client = new P2Client(clientCaching);
+			} catch (IOException e) {
+				throw Unchecked.wrap(e);
+			}
+		}
+		++clientUsers;
+		return client;
+	}
+
+	private synchronized void releaseClient() {
+		--clientUsers;
+		if (clientUsers == 0) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				throw Unchecked.wrap(e);
+			} finally {
+				client = null;
+			}
+		}
+	}
+
+	/** Drops every cached session. */
+	@Override
+	public void close() {
+		synchronized (sessions) {
+			sessions.clear();
+		}
+	}
+}
@@ -14,11 +14,31 @@
 package dev.equo.solstice.p2;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /**
  * Maintains a registry of EquoIDE workspaces.
@@ -59,46 +79,94 @@ import java.util.Optional;
  * <pre>
  * gradle root project's name-hashcode of ide directory absolute path/
  * gradle root project's name-hashcode of ide directory absolute path-owner   [file containing absolute path of ide folder]
+ * registry.properties   [absolute path of ide folder = workspace folder name and when it was last used]
  * </pre>
+ *
+ * The {@code registry.properties} index means that finding a workspace is a single small file read
+ * instead of listing every workspace and reading every owner token. The owner tokens are still
+ * written, because older versions of EquoIDE delete any workspace which doesn't have one.
+ *
+ * <p>Workspaces whose owner was deleted are deleted by {@link #removeAbandoned} on a background
+ * daemon thread, so it never slows down a launch. It can also delete workspaces which haven't been
+ * used in {@code maxAgeDays} days, or the least recently used ones once all workspaces take up more
+ * than {@code maxTotalBytes}, but only if the caller opts in by passing those. A workspace whose
+ * IDE is still running is never deleted.
  */
 public class WorkspaceRegistry {
 	public static WorkspaceRegistry instance() {
 		return new WorkspaceRegistry(CacheLocations.ideWorkspaces());
 	}
 
+	/** Garbage collection walks every workspace, so it runs at most this often. */
+	static final long GC_INTERVAL_HOURS = 24;
+
 	final File root;
 	/** Map from the ide directory to a workspace directory. */
 	final Map<File, File> ownerToWorkspace = new HashMap<>();
+	/** Map from the ide directory to the last time its workspace was used, in epoch millis. */
+	final Map<File, Long> ownerToLastUsed = new HashMap<>();
+	/** Workspaces which were handed out by this instance, never garbage collected. */
+	private final Set<File> inUse = ConcurrentHashMap.newKeySet();
 
 	static final String OWNER_PATH = "-owner";
+	static final String INDEX = "registry.properties";
+	private static final String INDEX_LOCK = "registry.lock";
+	/** Its timestamp is the last time garbage collection ran. */
+	private static final String LAST_GC = "registry.gc";
+	/** A {@link FileChannel#lock()} is per-process, so threads within a process need this too. */
+	private static final Object INDEX_MONITOR = new Object();
 
 	WorkspaceRegistry(File root) {
 		this.root = Objects.requireNonNull(root);
 		FileMisc.mkdirs(root);
-		for (File workspace : root.listFiles()) {
-			if (workspace.isDirectory()) {
-				Optional<String> ownerPath = FileMisc.readToken(root, workspace.getName() + OWNER_PATH);
-				if (ownerPath.isEmpty()) {
-					// if there's no token, delete it
-					deleteWorkspace(workspace, "missing token " + OWNER_PATH + ".");
-				} else {
-					ownerToWorkspace.put(new File(ownerPath.get()), workspace);
-				}
-			}
+		if (new File(root, INDEX).isFile()) {
+			withLockedIndex(index -> {});
+		} else {
+			migrateFromOwnerTokens();
 		}
 	}
 
+	/**
+	 * Adds every workspace which has an owner token but isn't in the index, e.g. because it was
+	 * created by an older version. We don't know when they were last used, so they count as just
+	 * used.
+	 */
+	private void migrateFromOwnerTokens() {
+		withLockedIndex(
+				index -> {
+					File[] files = root.listFiles();
+					if (files == null) {
+						return;
+					}
+					for (File workspace : files) {
+						if (workspace.isDirectory()) {
+							Optional<String> ownerPath =
+									FileMisc.readToken(root, workspace.getName() + OWNER_PATH);
+							if (ownerPath.isPresent() && !index.containsKey(ownerPath.get())) {
+								index.setProperty(
+										ownerPath.get(), indexValue(workspace, System.currentTimeMillis()));
+							}
+						}
+					}
+				});
+	}
+
 	/** Returns the workspace directory appropriate for the given name and file. */
-	public File workspaceDirForProjectDir(File ideDir) {
-		return ownerToWorkspace.computeIfAbsent(
-				ideDir,
-				owner -> {
-					File workspace =
-							new File(root, ideDir.getName() + "-" + owner.getAbsolutePath().hashCode());
-					FileMisc.mkdirs(workspace);
+	public synchronized File workspaceDirForProjectDir(File ideDir) {
+		var workspace =
+				ownerToWorkspace.computeIfAbsent(
+						ideDir,
+						owner -> new File(root, ideDir.getName() + "-" + owner.getAbsolutePath().hashCode()));
+		inUse.add(workspace);
+		withLockedIndex(
+				index -> {
+					// token first, so that nobody ever sees the workspace without its token and deletes it
 					FileMisc.writeToken(root, workspace.getName() + OWNER_PATH, ideDir.getAbsolutePath());
-					return workspace;
+					FileMisc.mkdirs(workspace);
+					index.setProperty(
+							ideDir.getAbsolutePath(), indexValue(workspace, System.currentTimeMillis()));
 				});
+		return workspace;
 	}
 
 	public void cleanWorkspaceDir(File workspaceDir) {
@@ -111,17 +179,218 @@ public class WorkspaceRegistry {
 		}
 	}
 
-	/** Removes all workspace directories for which their owning workspace is no longer present. */
-	public void removeAbandoned() {
-		Iterator<Map.Entry<File, File>> iter = ownerToWorkspace.entrySet().iterator();
-		while (iter.hasNext()) {
-			Map.Entry<File, File> entry = iter.next();
-			File ownerDir = entry.getKey();
-			File workspaceDir = entry.getValue();
-			if (!ownerDir.exists()) {
-				deleteWorkspace(workspaceDir, "owner " + ownerDir + " no longer exists.");
-				iter.remove();
+	/**
+	 * Starts a background daemon thread which removes all workspace directories for which their
+	 * owning workspace is no longer present, which haven't been used in {@code maxAgeDays} days (if
+	 * not null), or which don't fit in {@code maxTotalBytes} (if not null). A workspace for which
+	 * {@code ideIsRunning} returns true is never removed. Returns immediately, and does nothing if it
+	 * already ran in the last {@link #GC_INTERVAL_HOURS} hours.
+	 */
+	public void removeAbandoned(
+			@Nullable Long maxAgeDays, @Nullable Long maxTotalBytes, Predicate<File> ideIsRunning) {
+		var lastGc = new File(root, LAST_GC);
+		long now = System.currentTimeMillis();
+		if (now - lastGc.lastModified() < TimeUnit.HOURS.toMillis(GC_INTERVAL_HOURS)) {
+			return;
+		}
+		FileMisc.writeToken(root, LAST_GC, Long.toString(now));
+		var thread =
+				new Thread(
+						() -> removeAbandonedBlocking(maxAgeDays, maxTotalBytes, ideIsRunning),
+						"equo-workspace-gc");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Same as {@link #removeAbandoned}, but on the calling thread. */
+	void removeAbandonedBlocking(
+			@Nullable Long maxAgeDays, @Nullable Long maxTotalBytes, Predicate<File> ideIsRunning) {
+		Map<File, File> toDelete = new LinkedHashMap<>();
+		Map<File, File> candidates;
+		Map<File, Long> lastUsed;
+		synchronized (this) {
+			candidates = new HashMap<>(ownerToWorkspace);
+			lastUsed = new HashMap<>(ownerToLastUsed);
+		}
+		candidates.values().removeAll(inUse);
+		candidates.values().removeIf(ideIsRunning);
+		candidates.forEach(
+				(ownerDir, workspaceDir) -> {
+					if (!ownerDir.exists()) {
+						toDelete.put(workspaceDir, ownerDir);
+					} else if (maxAgeDays != null
+							&& lastUsed.get(ownerDir)
+									< System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays)) {
+						toDelete.put(workspaceDir, ownerDir);
+					}
+				});
+		candidates.values().removeAll(toDelete.keySet());
+
+		if (maxTotalBytes != null) {
+			long totalBytes = 0;
+			for (var workspaceDir : ownerToWorkspaceSnapshot().values()) {
+				if (!toDelete.containsKey(workspaceDir)) {
+					totalBytes += sizeOf(workspaceDir);
+				}
+			}
+			var leastRecentlyUsed = new ArrayList<>(candidates.entrySet());
+			leastRecentlyUsed.sort(Comparator.comparingLong(e -> lastUsed.get(e.getKey())));
+			for (var entry : leastRecentlyUsed) {
+				if (totalBytes <= maxTotalBytes) {
+					break;
+				}
+				totalBytes -= sizeOf(entry.getValue());
+				toDelete.put(entry.getValue(), entry.getKey());
+			}
+		}
+
+		toDelete.forEach(
+				(workspaceDir, ownerDir) -> {
+					String reason =
+							ownerDir.exists()
+									? "it hasn't been used recently."
+									: "owner " + ownerDir + " no longer exists.";
+					removeIfUnchanged(ownerDir, workspaceDir, lastUsed.get(ownerDir), reason, ideIsRunning);
+				});
+		deleteOrphans(ideIsRunning);
+	}
+
+	/**
+	 * Deletes the workspace, but only if the index still says it was last used when we decided to
+	 * delete it, and its IDE isn't running. Another build may have used it since we took our
+	 * snapshot. Its index entry and token go first, so that a partially deleted folder is just an
+	 * orphan which the next collection finishes off.
+	 */
+	private void removeIfUnchanged(
+			File ownerDir,
+			File workspaceDir,
+			long lastUsed,
+			String reason,
+			Predicate<File> ideIsRunning) {
+		var stillAbandoned = new AtomicBoolean();
+		withLockedIndex(
+				index -> {
+					var current = index.getProperty(ownerDir.getAbsolutePath());
+					if (indexValue(workspaceDir, lastUsed).equals(current)
+							&& !inUse.contains(workspaceDir)
+							&& !ideIsRunning.test(workspaceDir)) {
+						index.remove(ownerDir.getAbsolutePath());
+						stillAbandoned.set(true);
+					}
+				},
+				() -> {
+					if (stillAbandoned.get()) {
+						deleteWorkspace(workspaceDir, reason);
+					}
+				});
+	}
+
+	/**
+	 * Deletes workspace folders which are missing their owner token, and adds the ones which have a
+	 * token but aren't in the index.
+	 */
+	private void deleteOrphans(Predicate<File> ideIsRunning) {
+		withLockedIndex(
+				index -> {},
+				() -> {
+					File[] files = root.listFiles();
+					if (files == null) {
+						return;
+					}
+					for (File workspace : files) {
+						if (workspace.isDirectory()
+								&& !inUse.contains(workspace)
+								&& !new File(root, workspace.getName() + OWNER_PATH).exists()
+								&& !ideIsRunning.test(workspace)) {
+							deleteWorkspace(workspace, "missing token " + OWNER_PATH + ".");
+						}
+					}
+				});
+		migrateFromOwnerTokens();
+	}
+
+	private synchronized Map<File, File> ownerToWorkspaceSnapshot() {
+		return new HashMap<>(ownerToWorkspace);
+	}
+
+	private static long sizeOf(File dir) {
+		try (Stream<Path> files = Files.walk(dir.toPath())) {
+			return files.mapToLong(path -> path.toFile().length()).sum();
+		} catch (IOException | UncheckedIOException e) {
+			return 0;
+		}
+	}
+
+	private static String indexValue(File workspace, long lastUsed) {
+		return lastUsed + " " + workspace.getName();
+	}
+
+	/**
+	 * Reads the index while holding a file lock (other builds may be using the registry at the same
+	 * time), lets {@code update} modify it, writes it back atomically if it changed, and refreshes
+	 * this instance's view of it.
+	 */
+	private void withLockedIndex(Consumer<Properties> update) {
+		withLockedIndex(update, () -> {});
+	}
+
+	/** Same as above, and then runs {@code afterWrite} while the index is still locked. */
+	private synchronized void withLockedIndex(Consumer<Properties> update, Runnable afterWrite) {
+		synchronized (INDEX_MONITOR) {
+			withLockedIndexInternal(update, afterWrite);
+		}
+	}
+
+	private void withLockedIndexInternal(Consumer<Properties> update, Runnable afterWrite) {
+		try (var lockChannel =
+						FileChannel.open(
+								new File(root, INDEX_LOCK).toPath(),
+								StandardOpenOption.CREATE,
+								StandardOpenOption.WRITE);
+				var lock = lockChannel.lock()) {
+			var indexFile = new File(root, INDEX);
+			var index = new Properties();
+			if (indexFile.isFile()) {
+				try (var input = new FileInputStream(indexFile)) {
+					index.load(input);
+				} catch (IllegalArgumentException e) {
+					// a corrupt index gets rebuilt from the owner tokens
+					index.clear();
+				}
+			}
+			var before = new Properties();
+			before.putAll(index);
+			update.accept(index);
+			if (!index.equals(before) || !indexFile.isFile()) {
+				var temp = File.createTempFile(INDEX, ".tmp", root);
+				try {
+					try (var output = new FileOutputStream(temp)) {
+						index.store(output, null);
+					}
+					Files.move(
+							temp.toPath(),
+							indexFile.toPath(),
+							StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(temp.toPath());
+				}
 			}
+			ownerToWorkspace.clear();
+			ownerToLastUsed.clear();
+			for (var owner : index.stringPropertyNames()) {
+				var value = index.getProperty(owner);
+				int space = value.indexOf(' ');
+				if (space == -1) {
+					continue;
+				}
+				var ownerDir = new File(owner);
+				ownerToWorkspace.put(ownerDir, new File(root, value.substring(space + 1)));
+				ownerToLastUsed.put(ownerDir, Long.parseLong(value.substring(0, space)));
+			}
+			afterWrite.run();
+		} catch (IOException | NumberFormatException e) {
+			throw Unchecked.wrap(e);
 		}
 	}
 
@@ -131,9 +400,9 @@ public class WorkspaceRegistry {
 	 */
 	private void deleteWorkspace(File workspace, String reason) {
 		try {
-			FileMisc.delete(workspace);
 			File token = new File(root, workspace.getName() + OWNER_PATH);
 			FileMisc.delete(token);
+			FileMisc.delete(workspace);
 		} catch (Exception e) {
 			System.err.println(
 					"Tried to delete workspace " + workspace.getAbsolutePath() + " because " + reason);
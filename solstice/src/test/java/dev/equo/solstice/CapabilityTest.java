@@ -13,6 +13,12 @@
  *******************************************************************************/
 package dev.equo.solstice;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -71,4 +77,100 @@ public class CapabilityTest {
 		// we don't make any particular guarantees about the closest superset, we just say any
 		// we'll see if the OSGi requirements actually demand more of us at some point
 	}
+
+	@Test
+	public void supersetSetManyAttributes() {
+		var wide = new Capability("ns");
+		for (int i = 0; i < 6; ++i) {
+			wide.add("key" + i, "value" + i);
+		}
+		var set = new Capability.SupersetSet();
+		set.add(wide);
+		set.add(new Capability("other", "key0", "value0"));
+
+		var query = new Capability("ns");
+		query.add("key4", "value4");
+		query.add("key1", "value1");
+		query.add("key5", "value5");
+		Assertions.assertEquals(wide, set.getAnySupersetOf(query));
+
+		query.add("key2", "wrong");
+		Assertions.assertNull(set.getAnySupersetOf(query));
+		Assertions.assertNull(set.getAnySupersetOf(new Capability("ns", "missing", "value0")));
+		Assertions.assertNull(set.getAnySupersetOf(new Capability("none", "key0", "value0")));
+	}
+
+	/** A capability with {@code attributes} distinct keys, each with one of a few values. */
+	private static Capability randomCapability(Random random, int attributes) {
+		var keys = new ArrayList<Integer>();
+		for (int i = 0; i < 16; ++i) {
+			keys.add(i);
+		}
+		Collections.shuffle(keys, random);
+		var cap = new Capability("ns" + random.nextInt(3));
+		for (int i = 0; i < attributes; ++i) {
+			cap.add("key" + keys.get(i), "value" + random.nextInt(4));
+		}
+		return cap;
+	}
+
+	/** Some of the pairs of the given capability, in a different order. */
+	private static Capability randomSubset(Random random, Capability cap) {
+		var indices = new ArrayList<Integer>();
+		for (int i = 0; i < cap.size(); ++i) {
+			indices.add(i);
+		}
+		Collections.shuffle(indices, random);
+		var subset = new Capability(cap.namespace);
+		for (int i : indices.subList(0, 1 + random.nextInt(cap.size()))) {
+			subset.add(cap.keyValue.get(2 * i), cap.keyValue.get(2 * i + 1));
+		}
+		return subset;
+	}
+
+	@Test
+	public void supersetMapAtScale() {
+		var random = new Random(0);
+		var expected = new LinkedHashMap<Capability, Integer>();
+		var map = new Capability.SupersetMap<Integer>();
+		for (int i = 0; i < 10_000; ++i) {
+			var cap = randomCapability(random, 4 + random.nextInt(9));
+			expected.put(cap, i);
+			map.put(cap, i);
+		}
+		// the same entries added in another order must pick the same winner
+		var shuffled = new ArrayList<>(expected.keySet());
+		Collections.shuffle(shuffled, random);
+		var reordered = new Capability.SupersetMap<Integer>();
+		for (var cap : shuffled) {
+			reordered.put(cap, expected.get(cap));
+		}
+
+		var caps = List.copyOf(expected.keySet());
+		for (int i = 0; i < 500; ++i) {
+			var query =
+					i % 4 == 0
+							? randomCapability(random, 1 + random.nextInt(4))
+							: randomSubset(random, caps.get(random.nextInt(caps.size())));
+			var supersets = new HashSet<Integer>();
+			expected.forEach(
+					(cap, value) -> {
+						// isSupersetOf ignores the namespace, the map does not
+						if (cap.namespace.equals(query.namespace) && cap.isSupersetOf(query)) {
+							supersets.add(value);
+						}
+					});
+			var found = new HashSet<Integer>();
+			map.forEachSupersetOf(query, value -> Assertions.assertTrue(found.add(value)));
+			Assertions.assertEquals(supersets, found, query.toString());
+
+			var any = map.getAnySupersetOf(query);
+			if (supersets.isEmpty()) {
+				Assertions.assertNull(any, query.toString());
+			} else {
+				Assertions.assertTrue(supersets.contains(any), query.toString());
+			}
+			Assertions.assertEquals(any, reordered.getAnySupersetOf(query), query.toString());
+		}
+	}
 }
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NestedJarIndexTest {
+	@TempDir File dir;
+
+	private File folder() {
+		return new File(dir, "nested-jars");
+	}
+
+	private File parent(String name) throws IOException {
+		var parent = new File(dir, name + ".jar");
+		Files.write(parent.toPath(), name.getBytes());
+		return parent;
+	}
+
+	private static URL nested(File parent, String name) throws IOException {
+		return new URL("jar:" + parent.toURI().toURL().toExternalForm() + "!/" + name);
+	}
+
+	private File extracted(String name) throws IOException {
+		var extracted = new File(folder(), name);
+		Files.createDirectories(folder().toPath());
+		Files.write(extracted.toPath(), name.getBytes());
+		return extracted;
+	}
+
+	@Test
+	public void hitUntilTheParentChanges() throws IOException {
+		var parent = parent("parent");
+		var url = nested(parent, "lib.jar");
+		var extracted = extracted("parent__lib.jar__hash.jar");
+		var index = new NestedJarIndex(folder());
+		Assertions.assertNull(index.get(url));
+		index.put(url, extracted);
+		index.saveIfChanged();
+
+		Assertions.assertEquals(extracted, new NestedJarIndex(folder()).get(url));
+		Files.write(parent.toPath(), "changed parent".getBytes());
+		Assertions.assertNull(new NestedJarIndex(folder()).get(url));
+	}
+
+	@Test
+	public void savesMergeInsteadOfOverwriting() throws Exception {
+		var urls = new ArrayList<URL>();
+		var extractions = new ArrayList<File>();
+		for (int i = 0; i < 8; ++i) {
+			urls.add(nested(parent("parent" + i), "lib.jar"));
+			extractions.add(extracted("parent" + i + "__lib.jar__hash.jar"));
+		}
+		// every instance reads the index before any of them saves, like concurrent builds
+		var indexes = new ArrayList<NestedJarIndex>();
+		for (int i = 0; i < urls.size(); ++i) {
+			indexes.add(new NestedJarIndex(folder()));
+		}
+		var failures = new ConcurrentLinkedQueue<Throwable>();
+		var threads = new ArrayList<Thread>();
+		for (int i = 0; i < urls.size(); ++i) {
+			int idx = i;
+			threads.add(
+					new Thread(
+							() -> {
+								try {
+									indexes.get(idx).put(urls.get(idx), extractions.get(idx));
+									indexes.get(idx).saveIfChanged();
+								} catch (Throwable e) {
+									failures.add(e);
+								}
+							}));
+		}
+		threads.forEach(Thread::start);
+		for (var thread : threads) {
+			thread.join();
+		}
+		Assertions.assertTrue(failures.isEmpty(), failures.toString());
+		var merged = new NestedJarIndex(folder());
+		for (int i = 0; i < urls.size(); ++i) {
+			Assertions.assertEquals(extractions.get(i), merged.get(urls.get(i)));
+		}
+	}
+
+	/** Pretends that every stale extraction became stale longer ago than the grace period. */
+	private void ageStaleEntries() throws IOException {
+		var file = new File(folder(), "index.properties");
+		var index = new Properties();
+		try (var input = new FileInputStream(file)) {
+			index.load(input);
+		}
+		long longAgo =
+				System.currentTimeMillis()
+						- TimeUnit.DAYS.toMillis(NestedJarIndex.STALE_GRACE_DAYS + 1);
+		for (var key : index.stringPropertyNames()) {
+			if (key.startsWith("stale:")) {
+				index.setProperty(key, Long.toString(longAgo));
+			}
+		}
+		try (var output = new FileOutputStream(file)) {
+			index.store(output, null);
+		}
+	}
+
+	@Test
+	public void replacedExtractionIsOnlyDeletedAfterTheGracePeriod() throws IOException {
+		var url = nested(parent("parent"), "lib.jar");
+		var old = extracted("parent__lib.jar__old.jar");
+		var index = new NestedJarIndex(folder());
+		index.put(url, old);
+		index.saveIfChanged();
+
+		var current = extracted("parent__lib.jar__new.jar");
+		index = new NestedJarIndex(folder());
+		index.put(url, current);
+		index.saveIfChanged();
+		// an IDE which was launched before the replacement may still be reading it
+		Assertions.assertTrue(old.exists());
+
+		ageStaleEntries();
+		var other = nested(parent("other"), "lib.jar");
+		index = new NestedJarIndex(folder());
+		index.put(other, extracted("other__lib.jar__hash.jar"));
+		index.saveIfChanged();
+		Assertions.assertFalse(old.exists());
+		Assertions.assertTrue(current.exists());
+	}
+
+	@Test
+	public void staleExtractionWhichIsReferencedAgainIsKept() throws IOException {
+		var url = nested(parent("parent"), "lib.jar");
+		var shared = extracted("parent__lib.jar__shared.jar");
+		var index = new NestedJarIndex(folder());
+		index.put(url, shared);
+		index.saveIfChanged();
+
+		index = new NestedJarIndex(folder());
+		index.put(url, extracted("parent__lib.jar__new.jar"));
+		index.saveIfChanged();
+		ageStaleEntries();
+
+		// another parent jar happens to nest the same content under the same name
+		var other = nested(parent("other"), "lib.jar");
+		index = new NestedJarIndex(folder());
+		index.put(other, shared);
+		index.saveIfChanged();
+		Assertions.assertTrue(shared.exists());
+		Assertions.assertEquals(shared, new NestedJarIndex(folder()).get(other));
+	}
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Constants;
+import org.slf4j.LoggerFactory;
+
+public class ParallelActivationTest {
+	private static SolsticeManifest bundle(String name, String exports, String imports)
+			throws IOException {
+		var manifest = new Manifest();
+		var attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, name);
+		if (!exports.isEmpty()) {
+			attributes.putValue(Constants.EXPORT_PACKAGE, exports);
+		}
+		if (!imports.isEmpty()) {
+			attributes.putValue(Constants.IMPORT_PACKAGE, imports);
+		}
+		return SolsticeManifest.parseJar(new File(name + ".jar"), manifest);
+	}
+
+	private static ParallelActivation plan(List<SolsticeManifest> order, String... onCallingThread) {
+		return new ParallelActivation(
+				order, Set.of(onCallingThread), LoggerFactory.getLogger(ParallelActivationTest.class));
+	}
+
+	/** Records which thread activated each bundle, and fails if one is activated twice. */
+	private static class Recorder {
+		final List<String> finished = Collections.synchronizedList(new ArrayList<>());
+		final Map<String, Thread> threads = new ConcurrentHashMap<>();
+
+		void activate(SolsticeManifest manifest) {
+			var previous = threads.put(manifest.getSymbolicName(), Thread.currentThread());
+			Assertions.assertNull(previous, manifest + " was activated twice");
+			finished.add(manifest.getSymbolicName());
+		}
+	}
+
+	@Test
+	public void dependenciesFinishFirst() throws IOException {
+		var order =
+				List.of(
+						bundle("a", "a", ""),
+						bundle("b", "b", "a"),
+						bundle("c", "c", ""),
+						bundle("d", "", "b,c"),
+						bundle("e", "", ""));
+		var recorder = new Recorder();
+		plan(order)
+				.run(
+						4,
+						manifest -> {
+							for (var pkg : manifest.totalPkgImports()) {
+								Assertions.assertTrue(recorder.finished.contains(pkg), manifest + " before " + pkg);
+							}
+							recorder.activate(manifest);
+						},
+						null);
+		Assertions.assertEquals(Set.of("a", "b", "c", "d", "e"), Set.copyOf(recorder.finished));
+	}
+
+	@Test
+	public void errorIsRethrownAndDependentsAreSkipped() throws IOException {
+		var order = List.of(bundle("a", "a", ""), bundle("b", "b", "a"), bundle("c", "", "b"));
+		var recorder = new Recorder();
+		var error = new AssertionError("b is broken");
+		var thrown =
+				Assertions.assertThrows(
+						AssertionError.class,
+						() ->
+								plan(order)
+										.run(
+												2,
+												manifest -> {
+													if (manifest.getSymbolicName().equals("b")) {
+														throw error;
+													}
+													recorder.activate(manifest);
+												},
+												null));
+		Assertions.assertSame(error, thrown);
+		Assertions.assertEquals(List.of("a"), recorder.finished);
+	}
+
+	@Test
+	public void onCallingThreadEvenWhenStartedFromThePool() throws IOException {
+		// `ui` depends on `dep`, and `early` needs `ui` before the pool would have gotten to it
+		var early = bundle("early", "", "");
+		var dep = bundle("dep", "dep", "");
+		var ui = bundle("ui", "", "dep");
+		var recorder = new Recorder();
+		var activation = plan(List.of(early, dep, ui), "ui");
+		activation.run(
+				1,
+				manifest -> {
+					if (manifest == early) {
+						activation.activateNow(ui, recorder::activate);
+						Assertions.assertTrue(recorder.finished.contains("ui"));
+					}
+					recorder.activate(manifest);
+				},
+				null);
+		Assertions.assertEquals(Thread.currentThread(), recorder.threads.get("ui"));
+		Assertions.assertNotEquals(Thread.currentThread(), recorder.threads.get("dep"));
+		Assertions.assertEquals(List.of("dep", "ui", "early"), recorder.finished);
+	}
+
+	@Test
+	public void waiterIsWokenInsteadOfPolled() throws IOException {
+		var order = List.of(bundle("a", "a", ""), bundle("b", "", "a"), bundle("c", "", ""));
+		var recorder = new Recorder();
+		var wakes = new Semaphore(0);
+		var awaits = new AtomicInteger();
+		plan(order)
+				.run(
+						2,
+						recorder::activate,
+						new Solstice.Waiter() {
+							@Override
+							public void await() {
+								awaits.incrementAndGet();
+								wakes.acquireUninterruptibly();
+							}
+
+							@Override
+							public void wake() {
+								wakes.release();
+							}
+						});
+		Assertions.assertEquals(Set.of("a", "b", "c"), Set.copyOf(recorder.finished));
+		// at most one wait per bundle, no matter how long the activators took
+		Assertions.assertTrue(awaits.get() <= order.size(), awaits.get() + " awaits");
+	}
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.osgi.internal.framework.EquinoxBundle;
+import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.location.EquinoxLocations;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceRegistration;
+
+public class ServiceRegistryTest {
+	@TempDir File dir;
+
+	private ServiceRegistry registry() {
+		var props =
+				Map.of(
+						Constants.FRAMEWORK_STORAGE, new File(dir, "storage").getAbsolutePath(),
+						EquinoxLocations.PROP_CONFIG_AREA, new File(dir, "config").getAbsolutePath(),
+						EquinoxLocations.PROP_INSTANCE_AREA, new File(dir, "instance").getAbsolutePath(),
+						EquinoxLocations.PROP_INSTALL_AREA, new File(dir, "install").getAbsolutePath(),
+						EquinoxLocations.PROP_USER_AREA, new File(dir, "user").getAbsolutePath());
+		var container = new EquinoxContainer(props, null);
+		var bundle = new EquinoxBundle(-1L, "FAKE LOCATION", null, null, -1, container);
+		return new ServiceRegistry(bundle, container) {
+			@Override
+			protected Bundle systemBundle() {
+				return null;
+			}
+		};
+	}
+
+	private static Hashtable<String, Object> props(String key, Object value) {
+		var props = new Hashtable<String, Object>();
+		props.put(key, value);
+		return props;
+	}
+
+	private static void runConcurrently(int threads, ThrowingIntConsumer body)
+			throws InterruptedException {
+		var failures = new ConcurrentLinkedQueue<Throwable>();
+		var started = new ArrayList<Thread>();
+		for (int i = 0; i < threads; ++i) {
+			int idx = i;
+			var thread =
+					new Thread(
+							() -> {
+								try {
+									body.accept(idx);
+								} catch (Throwable e) {
+									failures.add(e);
+								}
+							});
+			thread.start();
+			started.add(thread);
+		}
+		for (var thread : started) {
+			thread.join();
+		}
+		if (!failures.isEmpty()) {
+			throw new AssertionError(failures.peek());
+		}
+	}
+
+	interface ThrowingIntConsumer {
+		void accept(int value) throws Exception;
+	}
+
+	@Test
+	public void clockCacheStaysBoundedAndKeepsHotEntries() {
+		var cache = new ServiceRegistry.ClockCache<String, Integer>(100);
+		cache.put("hot", -1);
+		for (int i = 0; i < 10_000; ++i) {
+			Assertions.assertEquals(-1, cache.get("hot"));
+			cache.put(Integer.toString(i), i);
+			Assertions.assertTrue(cache.size() <= 100, "size " + cache.size());
+		}
+		Assertions.assertEquals(9_999, cache.get("9999"));
+		Assertions.assertNull(cache.get("0"));
+	}
+
+	@Test
+	public void clockCacheUnderContention() throws InterruptedException {
+		var cache = new ServiceRegistry.ClockCache<Integer, Integer>(64);
+		runConcurrently(
+				8,
+				thread -> {
+					for (int i = 0; i < 20_000; ++i) {
+						int key = (i * 31 + thread) % 500;
+						var value = cache.get(key);
+						if (value == null) {
+							cache.put(key, key);
+						} else {
+							Assertions.assertEquals(key, value);
+						}
+					}
+				});
+		// every eviction runs until the map fits, so only the last few puts can overshoot
+		Assertions.assertTrue(cache.size() <= 64 + 8, "size " + cache.size());
+	}
+
+	@Test
+	public void concurrentRegistrationsAreNeverServedStale() throws InterruptedException {
+		var registry = registry();
+		int perThread = 200;
+		runConcurrently(
+				8,
+				thread -> {
+					var filter = "(&(objectClass=svc)(thread=" + thread + "))";
+					for (int i = 0; i < perThread; ++i) {
+						registry.registerService("svc", new Object(), props("thread", thread));
+						// a query after our own registration must see it, even if it was cached before
+						Assertions.assertEquals(i + 1, registry.getServiceReferences("svc", filter).length);
+						// churn through more filters than the caches hold
+						registry.getServiceReferences(null, "(&(thread=" + thread + ")(n=" + i + "))");
+					}
+				});
+		Assertions.assertEquals(8 * perThread, registry.getServiceReferences("svc", null).length);
+	}
+
+	@Test
+	public void unregisterIsVisibleToTheNextQuery() throws Exception {
+		var registry = registry();
+		var registrations = new ArrayList<ServiceRegistration<?>>();
+		for (int i = 0; i < 10; ++i) {
+			registrations.add(registry.registerService("svc", new Object(), props("n", i)));
+		}
+		Assertions.assertEquals(10, registry.getServiceReferences("svc", "(n>=0)").length);
+		registrations.get(3).unregister();
+		Assertions.assertEquals(9, registry.getServiceReferences("svc", "(n>=0)").length);
+		registrations.get(4).setProperties(props("n", -1));
+		Assertions.assertEquals(8, registry.getServiceReferences("svc", "(n>=0)").length);
+	}
+
+	@Test
+	public void listenerMayWaitForAnotherThreadWhichRegisters() throws Exception {
+		var registry = registry();
+		var otherThreadRegistered = new AtomicBoolean();
+		List<Integer> events = new ArrayList<>();
+		registry.addServiceListener(
+				event -> {
+					events.add(event.getType());
+					if (event.getType() != ServiceEvent.REGISTERED) {
+						return;
+					}
+					var other = new Thread(() -> registry.registerService("b", new Object(), null));
+					other.start();
+					try {
+						other.join(10_000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					otherThreadRegistered.set(!other.isAlive());
+				},
+				"(objectClass=a)");
+		registry.registerService("a", new Object(), null);
+		Assertions.assertTrue(otherThreadRegistered.get());
+		Assertions.assertEquals(List.of(ServiceEvent.REGISTERED), events);
+		Assertions.assertEquals(1, registry.getServiceReferences("b", null).length);
+	}
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SignedJarsTest {
+	@TempDir File dir;
+
+	private static final String MANIFEST = "Manifest-Version: 1.0\r\nBundle-SymbolicName: a\r\n\r\n";
+
+	/** Entries of a jar which looks signed, the signature files themselves are never checked. */
+	private static Map<String, byte[]> signedEntries(int classes) {
+		var entries = new LinkedHashMap<String, byte[]>();
+		entries.put(JarFile.MANIFEST_NAME, MANIFEST.getBytes(StandardCharsets.UTF_8));
+		entries.put("META-INF/SIGNER.SF", "Signature-Version: 1.0\r\n\r\n".getBytes());
+		entries.put("META-INF/SIGNER.RSA", new byte[] {1, 2, 3});
+		for (int i = 0; i < classes; ++i) {
+			entries.put("a/Class" + i + ".class", ("class " + i).repeat(1 + i % 7).getBytes());
+		}
+		entries.put("META-INF/OTHER.DSA", new byte[] {4, 5, 6});
+		return entries;
+	}
+
+	/** Deflated entries, which {@link ZipOutputStream} follows with a data descriptor. */
+	private static void writeDeflated(File jar, Map<String, byte[]> entries) throws IOException {
+		try (var output = new ZipOutputStream(new FileOutputStream(jar))) {
+			for (var entry : entries.entrySet()) {
+				output.putNextEntry(new ZipEntry(entry.getKey()));
+				output.write(entry.getValue());
+				output.closeEntry();
+			}
+		}
+	}
+
+	/** Stored entries, whose sizes are in the local header and so have no data descriptor. */
+	private static void writeStored(File jar, Map<String, byte[]> entries) throws IOException {
+		try (var output = new ZipOutputStream(new FileOutputStream(jar))) {
+			for (var entry : entries.entrySet()) {
+				var zipEntry = new ZipEntry(entry.getKey());
+				var crc = new CRC32();
+				crc.update(entry.getValue());
+				zipEntry.setMethod(ZipEntry.STORED);
+				zipEntry.setSize(entry.getValue().length);
+				zipEntry.setCrc(crc.getValue());
+				output.putNextEntry(zipEntry);
+				output.write(entry.getValue());
+				output.closeEntry();
+			}
+		}
+	}
+
+	private static File strip(File jar) {
+		var files = new ArrayList<>(List.of(jar));
+		SignedJars.stripIf(files, name -> true);
+		return files.get(0);
+	}
+
+	/** Opens the jar the ways a classloader might, and checks that only the signature is gone. */
+	private static void assertStripped(Map<String, byte[]> entries, File stripped)
+			throws IOException {
+		var expected = new LinkedHashMap<>(entries);
+		expected.keySet().removeIf(name -> name.startsWith("META-INF/") && !name.endsWith(".MF"));
+		try (var jar = new JarFile(stripped, true)) {
+			Assertions.assertEquals(expected.size(), jar.size());
+			var manifest = jar.getManifest().getMainAttributes();
+			Assertions.assertEquals("a", manifest.getValue("Bundle-SymbolicName"));
+			for (var entry : expected.entrySet()) {
+				var jarEntry = jar.getJarEntry(entry.getKey());
+				Assertions.assertNotNull(jarEntry, entry.getKey());
+				try (var input = jar.getInputStream(jarEntry)) {
+					Assertions.assertArrayEquals(entry.getValue(), input.readAllBytes(), entry.getKey());
+				}
+				Assertions.assertNull(jarEntry.getCodeSigners(), entry.getKey());
+			}
+		}
+		// streaming, the way a nested jar is read, relies on the local headers and data descriptors
+		var streamed = new LinkedHashMap<String, byte[]>();
+		try (var input = new ZipInputStream(new FileInputStream(stripped))) {
+			ZipEntry entry;
+			while ((entry = input.getNextEntry()) != null) {
+				streamed.put(entry.getName(), input.readAllBytes());
+			}
+		}
+		Assertions.assertEquals(expected.keySet(), streamed.keySet());
+		for (var entry : expected.entrySet()) {
+			Assertions.assertArrayEquals(entry.getValue(), streamed.get(entry.getKey()), entry.getKey());
+		}
+	}
+
+	@Test
+	public void stripsDeflatedEntriesWithDataDescriptors() throws IOException {
+		var entries = signedEntries(50);
+		var jar = new File(dir, "deflated.jar");
+		writeDeflated(jar, entries);
+		var stripped = strip(jar);
+		Assertions.assertEquals(SignedJars.strippedFile(jar), stripped);
+		assertStripped(entries, stripped);
+		// copied without recompressing, so every entry is byte-for-byte the same size
+		try (var before = new ZipFile(jar);
+				var after = new ZipFile(stripped)) {
+			after.stream()
+					.forEach(
+							entry ->
+									Assertions.assertEquals(
+											before.getEntry(entry.getName()).getCompressedSize(),
+											entry.getCompressedSize()));
+		}
+	}
+
+	@Test
+	public void stripsStoredEntries() throws IOException {
+		var entries = signedEntries(50);
+		var jar = new File(dir, "stored.jar");
+		writeStored(jar, entries);
+		assertStripped(entries, strip(jar));
+	}
+
+	@Test
+	public void stripsZip64ByRecompressing() throws IOException {
+		// more entries than a plain end of central directory record can count
+		var entries = signedEntries(0x10000);
+		var jar = new File(dir, "zip64.jar");
+		writeDeflated(jar, entries);
+		assertStripped(entries, strip(jar));
+	}
+
+	@Test
+	public void stampTokenSkipsRestripping() throws IOException {
+		var entries = signedEntries(5);
+		var jar = new File(dir, "stamped.jar");
+		writeDeflated(jar, entries);
+		var stripped = strip(jar);
+		long marker = 1_000_000_000L;
+		Assertions.assertTrue(stripped.setLastModified(marker));
+
+		// unchanged jar, the stamp matches
+		strip(jar);
+		Assertions.assertEquals(marker, stripped.lastModified());
+
+		// touched but identical jar, the hash matches
+		Assertions.assertTrue(jar.setLastModified(jar.lastModified() - 60_000));
+		strip(jar);
+		Assertions.assertEquals(marker, stripped.lastModified());
+
+		// changed jar, stripped again
+		entries.put("a/Added.class", "added".getBytes());
+		writeDeflated(jar, entries);
+		strip(jar);
+		Assertions.assertNotEquals(marker, stripped.lastModified());
+		assertStripped(entries, stripped);
+		Assertions.assertTrue(Files.exists(new File(stripped.getAbsolutePath() + ".source").toPath()));
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OfflineCacheTest {
+	@TempDir File dir;
+
+	@BeforeEach
+	public void noArchive() {
+		CacheLocations.override_p2archive = new File(dir, "no.archive");
+	}
+
+	@AfterEach
+	public void resetArchive() {
+		CacheLocations.override_p2archive = null;
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		var root = new File(dir, "offline");
+		try (var cache = new OfflineCache(root)) {
+			cache.put("https://a/content.xml", bytes("a"));
+			cache.put("https://b/content.xml", bytes("b"));
+			cache.put404("https://c/content.xml");
+			cache.put("https://a/content.xml", bytes("a2"));
+			Assertions.assertArrayEquals(bytes("a2"), cache.get("https://a/content.xml"));
+		}
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("a2"), cache.get("https://a/content.xml"));
+			Assertions.assertArrayEquals(bytes("b"), cache.get("https://b/content.xml"));
+			Assertions.assertTrue(OfflineCache.is404(cache.get("https://c/content.xml")));
+			Assertions.assertNull(cache.get("https://d/content.xml"));
+		}
+	}
+
+	@Test
+	public void compactionStartsANewGeneration() throws IOException {
+		var root = new File(dir, "offline");
+		var big = new byte[3 * 1024 * 1024];
+		try (var cache = new OfflineCache(root)) {
+			cache.put("https://small/", bytes("small"));
+			for (int i = 0; i < 4; ++i) {
+				Arrays.fill(big, (byte) i);
+				cache.put("https://big/", big);
+			}
+		}
+		Assertions.assertFalse(new File(root, "data").exists());
+		Assertions.assertTrue(new File(root, "data-1").length() < 2 * big.length);
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("small"), cache.get("https://small/"));
+			Assertions.assertArrayEquals(big, cache.get("https://big/"));
+			cache.put("https://after/", bytes("after"));
+		}
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("after"), cache.get("https://after/"));
+		}
+	}
+
+	@Test
+	public void tornWriteIsDropped() throws IOException {
+		var root = new File(dir, "offline");
+		try (var cache = new OfflineCache(root)) {
+			cache.put("https://a/", bytes("a"));
+		}
+		// a record which says it has a 100-byte url, but the process died after 3 of them
+		Files.write(
+				new File(root, "data").toPath(),
+				new byte[] {0, 0, 0, 100, 'h', 't', 't'},
+				StandardOpenOption.APPEND);
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("a"), cache.get("https://a/"));
+			cache.put("https://b/", bytes("b"));
+		}
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("a"), cache.get("https://a/"));
+			Assertions.assertArrayEquals(bytes("b"), cache.get("https://b/"));
+		}
+	}
+
+	@Test
+	public void tornIndexRescansTheLog() throws IOException {
+		var root = new File(dir, "offline");
+		try (var cache = new OfflineCache(root)) {
+			cache.put("https://a/", bytes("a"));
+			cache.put("https://b/", bytes("b"));
+		}
+		var index = new File(root, "index").toPath();
+		var content = Files.readAllBytes(index);
+		Files.write(index, Arrays.copyOf(content, content.length / 2));
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("a"), cache.get("https://a/"));
+			Assertions.assertArrayEquals(bytes("b"), cache.get("https://b/"));
+		}
+	}
+
+	@Test
+	public void migratesFolderPerUrl() throws IOException {
+		var root = new File(dir, "offline");
+		var entry = new File(root, OfflineCache.filenameSafe("https://a/content.xml"));
+		Files.createDirectories(entry.toPath());
+		Files.write(new File(root, "version").toPath(), bytes("2"));
+		Files.write(new File(entry, "url").toPath(), bytes("https://a/content.xml"));
+		Files.write(new File(entry, "content").toPath(), bytes("a"));
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("a"), cache.get("https://a/content.xml"));
+		}
+		Assertions.assertFalse(entry.exists());
+		try (var cache = new OfflineCache(root)) {
+			Assertions.assertArrayEquals(bytes("a"), cache.get("https://a/content.xml"));
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class P2DataArchiveTest {
+	@TempDir File dir;
+	File p2data;
+
+	@BeforeEach
+	public void emptyP2data() {
+		p2data = new File(dir, "p2-data");
+		CacheLocations.override_p2data = p2data;
+		CacheLocations.override_p2archive = null;
+	}
+
+	@AfterEach
+	public void resetP2data() {
+		CacheLocations.override_p2data = null;
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private File write(String path, byte[] content) throws IOException {
+		var file = new File(p2data, path);
+		FileMisc.mkdirs(file.getParentFile());
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+	private File offline() {
+		return new File(CacheLocations.p2metadata(), "offline");
+	}
+
+	/** Fills p2data, exports it, then wipes p2data so that everything comes from the archive. */
+	private File exportAndWipe() throws IOException {
+		try (var cache = new OfflineCache(offline())) {
+			cache.put("https://a/content.xml", bytes("a"));
+			cache.put("https://b/content.xml", bytes("b"));
+			cache.put("https://c/content.xml", bytes("c"));
+		}
+		write("queries/some-query/content", bytes("query"));
+		write("bundle-pool/plugins/some.jar", bytes("jar"));
+		write("bundle-pool/plugins/other.jar.tmp", bytes("partial"));
+		var exported = new File(dir, "exported.archive");
+		P2DataArchive.export(exported);
+		FileMisc.delete(p2data);
+		return exported;
+	}
+
+	@Test
+	public void exportImportRoundTrip() throws IOException {
+		P2DataArchive.importFrom(exportAndWipe());
+		var archive = P2DataArchive.current();
+		Assertions.assertNotNull(archive);
+
+		var query = new File(p2data, "queries/some-query/content");
+		Assertions.assertArrayEquals(bytes("query"), archive.read(query));
+		Assertions.assertEquals("query", archive.readToken(query));
+		Assertions.assertEquals(5, archive.length(query));
+		var mapped = archive.map(query);
+		var fromMap = new byte[mapped.remaining()];
+		mapped.get(fromMap);
+		Assertions.assertArrayEquals(bytes("query"), fromMap);
+		Assertions.assertNull(archive.read(new File(p2data, "bundle-pool/plugins/other.jar.tmp")));
+
+		var jar = new File(p2data, "bundle-pool/plugins/some.jar");
+		Assertions.assertFalse(jar.exists());
+		FileMisc.mkdirs(jar.getParentFile());
+		Assertions.assertTrue(archive.extract(jar));
+		Assertions.assertArrayEquals(bytes("jar"), Files.readAllBytes(jar.toPath()));
+		Assertions.assertFalse(archive.extract(new File(p2data, "bundle-pool/plugins/missing.jar")));
+
+		try (var cache = new OfflineCache(offline())) {
+			Assertions.assertArrayEquals(bytes("a"), cache.get("https://a/content.xml"));
+			Assertions.assertArrayEquals(bytes("b"), cache.get("https://b/content.xml"));
+			Assertions.assertArrayEquals(bytes("c"), cache.get("https://c/content.xml"));
+			Assertions.assertNull(cache.get("https://d/content.xml"));
+		}
+	}
+
+	@Test
+	public void archivedIndexOnlyCoversPartOfTheLog() throws IOException {
+		try (var cache = new OfflineCache(offline())) {
+			cache.put("https://a/content.xml", bytes("a"));
+		}
+		var index = Files.readAllBytes(new File(offline(), "index").toPath());
+		try (var cache = new OfflineCache(offline())) {
+			cache.put("https://b/content.xml", bytes("b"));
+		}
+		// an index from before b was appended, as if the process died before closing the cache
+		Files.write(new File(offline(), "index").toPath(), index);
+		var exported = new File(dir, "exported.archive");
+		P2DataArchive.export(exported);
+		FileMisc.delete(p2data);
+		P2DataArchive.importFrom(exported);
+		try (var cache = new OfflineCache(offline())) {
+			Assertions.assertArrayEquals(bytes("a"), cache.get("https://a/content.xml"));
+			Assertions.assertArrayEquals(bytes("b"), cache.get("https://b/content.xml"));
+		}
+	}
+
+	@Test
+	public void importIsANewGenerationRatherThanAReplacement() throws IOException {
+		var exported = exportAndWipe();
+		P2DataArchive.importFrom(exported);
+		var first = P2DataArchive.current();
+		var query = new File(p2data, "queries/some-query/content");
+		var mappedBefore = first.map(query);
+
+		write("queries/some-query/content", bytes("newer"));
+		P2DataArchive.export(exported);
+		P2DataArchive.importFrom(exported);
+		var second = P2DataArchive.current();
+		Assertions.assertNotSame(first, second);
+		Assertions.assertEquals("newer", second.readToken(query));
+		// the first generation was never replaced underneath its mapping
+		Assertions.assertEquals('q', mappedBefore.get(0));
+
+		var base = CacheLocations.p2archive();
+		Assertions.assertFalse(base.exists());
+		Assertions.assertFalse(new File(base.getParentFile(), base.getName() + "-1").exists());
+		Assertions.assertTrue(new File(base.getParentFile(), base.getName() + "-2").isFile());
+	}
+
+	@Test
+	public void corruptTrailerIsRejected() throws IOException {
+		var exported = exportAndWipe();
+		try (var file = new RandomAccessFile(exported, "rw")) {
+			file.seek(file.length() - 3);
+			file.write(new byte[] {'X', 'X', 'X'});
+		}
+		Assertions.assertThrows(IOException.class, () -> P2DataArchive.importFrom(exported));
+		Assertions.assertNull(P2DataArchive.current());
+
+		// placed by hand instead of imported, it is ignored rather than read
+		var base = CacheLocations.p2archive();
+		FileMisc.mkdirs(base.getParentFile());
+		Files.copy(exported.toPath(), base.toPath());
+		Assertions.assertNull(P2DataArchive.current());
+		try (var cache = new OfflineCache(offline())) {
+			Assertions.assertNull(cache.get("https://a/content.xml"));
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class P2MirrorsTest {
+	private static final String ORIGINAL = "http://p2.invalid/repo/";
+
+	@TempDir File dir;
+
+	private HttpServer healthy, broken, missing;
+
+	@BeforeEach
+	public void startServers() throws IOException {
+		P2Mirrors.clear();
+		healthy = server(200);
+		// answers the probe, but fails every real request
+		broken = server(503);
+		// answers the probe, but doesn't have anything
+		missing = server(404);
+	}
+
+	@AfterEach
+	public void stopServers() {
+		healthy.stop(0);
+		broken.stop(0);
+		missing.stop(0);
+		CacheLocations.override_p2mirrors = null;
+		P2Mirrors.clear();
+	}
+
+	private static HttpServer server(int getCode) throws IOException {
+		var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext(
+				"/",
+				exchange -> {
+					if (exchange.getRequestMethod().equals("HEAD")) {
+						exchange.sendResponseHeaders(200, -1);
+					} else {
+						var body = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+						exchange.sendResponseHeaders(getCode, body.length);
+						exchange.getResponseBody().write(body);
+					}
+					exchange.close();
+				});
+		server.start();
+		return server;
+	}
+
+	private static String url(HttpServer server) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/mirror/";
+	}
+
+	private static String get(String url) throws IOException {
+		return P2Mirrors.fetch(
+				url,
+				candidate -> {
+					var client = new OkHttpClient();
+					try (var response = client.newCall(P2Client.buildRequest(candidate)).execute()) {
+						P2Mirrors.checkServerError(response.code(), candidate);
+						if (response.code() == 404) {
+							P2Mirrors.checkNotOnMirror(candidate, url);
+						}
+						return response.body().string();
+					}
+				});
+	}
+
+	@Test
+	public void withoutMirrors() {
+		var url = "http://p2.invalid/other/content.jar";
+		Assertions.assertEquals(List.of(url), P2Mirrors.candidates(url));
+	}
+
+	@Test
+	public void unreachableCandidatesGoLast() {
+		P2Mirrors.add(ORIGINAL, url(healthy));
+		Assertions.assertEquals(
+				List.of(url(healthy) + "content.jar", ORIGINAL + "content.jar"),
+				P2Mirrors.candidates(ORIGINAL + "content.jar"));
+	}
+
+	@Test
+	public void failsOverAndDemotes() throws IOException {
+		P2Mirrors.add(ORIGINAL, url(broken), url(healthy));
+		Assertions.assertEquals("/mirror/content.jar", get(ORIGINAL + "content.jar"));
+		// whichever mirror probed faster, the broken one is now behind the healthy one
+		var candidates = P2Mirrors.candidates(ORIGINAL + "a.jar");
+		Assertions.assertEquals(url(healthy) + "a.jar", candidates.get(0));
+	}
+
+	@Test
+	public void failsOverWhenMissingFromAMirror() throws IOException {
+		P2Mirrors.add(ORIGINAL, url(missing), url(healthy));
+		for (int i = 0; i < 3; ++i) {
+			Assertions.assertEquals("/mirror/content.jar", get(ORIGINAL + "content.jar"));
+		}
+	}
+
+	@Test
+	public void unreachableIsRethrownEvenIfTheLastMirrorLacksTheUrl() {
+		var original = url(healthy).replace("/mirror/", "/original/");
+		// nothing listens on port 1, so its probe fails and it ranks behind the original
+		var mirror = "http://127.0.0.1:1/mirror/";
+		P2Mirrors.add(original, mirror);
+		var thrown =
+				Assertions.assertThrows(
+						UnknownHostException.class,
+						() ->
+								P2Mirrors.fetch(
+										original + "content.jar",
+										candidate -> {
+											if (candidate.startsWith(original)) {
+												throw new UnknownHostException(candidate);
+											}
+											throw new P2Mirrors.NotOnMirror(candidate);
+										}));
+		Assertions.assertEquals(1, thrown.getSuppressed().length);
+		Assertions.assertTrue(thrown.getSuppressed()[0] instanceof P2Mirrors.NotOnMirror);
+	}
+
+	private static void writeConfig(File file, String... mirrors) throws IOException {
+		var props = new Properties();
+		props.setProperty(ORIGINAL, String.join(",", mirrors));
+		try (var output = new FileOutputStream(file)) {
+			props.store(output, null);
+		}
+	}
+
+	@Test
+	public void configFileIsReadAgainWhenItChanges() throws IOException {
+		var url = ORIGINAL + "content.jar";
+		var file = new File(dir, "mirrors.properties");
+		CacheLocations.override_p2mirrors = file;
+		Assertions.assertEquals(List.of(url), P2Mirrors.candidates(url));
+
+		writeConfig(file, url(healthy));
+		Assertions.assertEquals(List.of(url(healthy) + "content.jar", url), P2Mirrors.candidates(url));
+
+		writeConfig(file, url(healthy), url(missing));
+		Assertions.assertEquals(
+				Set.of(url(healthy) + "content.jar", url(missing) + "content.jar", url),
+				Set.copyOf(P2Mirrors.candidates(url)));
+
+		// mirrors which were added in code outlive changes to the file
+		P2Mirrors.add(ORIGINAL, url(broken));
+		CacheLocations.override_p2mirrors = new File(dir, "other.properties");
+		Assertions.assertEquals(
+				Set.of(url(broken) + "content.jar", url), Set.copyOf(P2Mirrors.candidates(url)));
+	}
+}
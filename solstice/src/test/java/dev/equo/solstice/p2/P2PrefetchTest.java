@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import com.diffplug.common.swt.os.SwtPlatform;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class P2PrefetchTest {
+	@Test
+	public void forEveryPlatform() {
+		var model = new P2Model();
+		model.addP2Repo("https://download.eclipse.org/eclipse/updates/4.26/");
+		model.getInstall().add("org.eclipse.platform.ide.categoryIU");
+		model.applyNativeFilterIfNoPlatformFilter();
+
+		var models = P2Prefetch.forEveryPlatform(model);
+		Assertions.assertEquals(SwtPlatform.getAll().size(), models.size());
+		// the copy for the running platform is the model which a build on this machine will query
+		Assertions.assertTrue(models.contains(model));
+	}
+
+	@Test
+	public void forEveryPlatformKeepsAnExplicitPlatform() {
+		var model = new P2Model();
+		model.addP2Repo("https://download.eclipse.org/eclipse/updates/4.26/");
+		model.getInstall().add("org.eclipse.platform.ide.categoryIU");
+		model.addFilterAndValidate("no-platform", new P2Model.Filter().platformNone());
+		model.applyNativeFilterIfNoPlatformFilter();
+
+		Assertions.assertEquals(List.of(model), P2Prefetch.forEveryPlatform(model));
+	}
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2023 EquoTech, Inc. and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     EquoTech, Inc. - initial API and implementation
+ *******************************************************************************/
+package dev.equo.solstice.p2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WorkspaceRegistryTest {
+	@TempDir File dir;
+
+	private File root() {
+		return new File(dir, "workspaces");
+	}
+
+	private File ide(String name) {
+		var ide = new File(dir, name);
+		FileMisc.mkdirs(ide);
+		return ide;
+	}
+
+	/** Rewrites when the workspace of {@code ideDir} was last used, in the shared index. */
+	private void lastUsed(File ideDir, long millisAgo) throws IOException {
+		var indexFile = new File(root(), WorkspaceRegistry.INDEX);
+		var index = new Properties();
+		try (var input = new FileInputStream(indexFile)) {
+			index.load(input);
+		}
+		var value = index.getProperty(ideDir.getAbsolutePath());
+		var workspaceName = value.substring(value.indexOf(' ') + 1);
+		index.setProperty(
+				ideDir.getAbsolutePath(), (System.currentTimeMillis() - millisAgo) + " " + workspaceName);
+		try (var output = new FileOutputStream(indexFile)) {
+			index.store(output, null);
+		}
+	}
+
+	@Test
+	public void indexIsSharedBetweenInstances() {
+		var ide = ide("ide");
+		var workspace = new WorkspaceRegistry(root()).workspaceDirForProjectDir(ide);
+		Assertions.assertTrue(workspace.isDirectory());
+		Assertions.assertTrue(new File(root(), workspace.getName() + "-owner").isFile());
+
+		var other = new WorkspaceRegistry(root());
+		Assertions.assertEquals(workspace, other.ownerToWorkspace.get(ide));
+		Assertions.assertEquals(workspace, other.workspaceDirForProjectDir(ide));
+	}
+
+	@Test
+	public void migratesOwnerTokens() throws IOException {
+		var ide = ide("ide");
+		var workspace = new File(root(), "old-workspace");
+		FileMisc.mkdirs(workspace);
+		Files.write(
+				new File(root(), "old-workspace-owner").toPath(),
+				ide.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+		var registry = new WorkspaceRegistry(root());
+		Assertions.assertEquals(workspace, registry.ownerToWorkspace.get(ide));
+		Assertions.assertTrue(new File(root(), WorkspaceRegistry.INDEX).isFile());
+	}
+
+	@Test
+	public void lockedIndexDoesNotLoseConcurrentUpdates() throws InterruptedException {
+		var threads = new ArrayList<Thread>();
+		var ides = new ArrayList<File>();
+		for (int i = 0; i < 8; ++i) {
+			var ide = ide("ide" + i);
+			ides.add(ide);
+			// separate instances, like separate builds, which only share the index file
+			threads.add(new Thread(() -> new WorkspaceRegistry(root()).workspaceDirForProjectDir(ide)));
+		}
+		threads.forEach(Thread::start);
+		for (var thread : threads) {
+			thread.join();
+		}
+		var registry = new WorkspaceRegistry(root());
+		Assertions.assertEquals(ides.size(), registry.ownerToWorkspace.size());
+		for (var ide : ides) {
+			Assertions.assertTrue(registry.ownerToWorkspace.get(ide).isDirectory());
+		}
+	}
+
+	@Test
+	public void evictsAbandonedAndOldButNeverRunning() throws IOException {
+		var deleted = ide("deleted");
+		var deletedButRunning = ide("deletedButRunning");
+		var old = ide("old");
+		var recent = ide("recent");
+		var handedOut = new WorkspaceRegistry(root());
+		var deletedWorkspace = handedOut.workspaceDirForProjectDir(deleted);
+		var runningWorkspace = handedOut.workspaceDirForProjectDir(deletedButRunning);
+		var oldWorkspace = handedOut.workspaceDirForProjectDir(old);
+		var recentWorkspace = handedOut.workspaceDirForProjectDir(recent);
+		FileMisc.delete(deleted);
+		FileMisc.delete(deletedButRunning);
+		lastUsed(old, TimeUnit.DAYS.toMillis(10));
+		var orphan = new File(root(), "orphan");
+		FileMisc.mkdirs(orphan);
+
+		// the instance which handed them out never collects them
+		handedOut.removeAbandonedBlocking(1L, null, workspace -> false);
+		Assertions.assertTrue(deletedWorkspace.exists());
+
+		new WorkspaceRegistry(root())
+				.removeAbandonedBlocking(1L, null, workspace -> workspace.equals(runningWorkspace));
+		Assertions.assertFalse(deletedWorkspace.exists());
+		Assertions.assertFalse(oldWorkspace.exists());
+		Assertions.assertFalse(orphan.exists());
+		Assertions.assertTrue(runningWorkspace.exists());
+		Assertions.assertTrue(recentWorkspace.exists());
+
+		var registry = new WorkspaceRegistry(root());
+		Assertions.assertNull(registry.ownerToWorkspace.get(deleted));
+		Assertions.assertNull(registry.ownerToWorkspace.get(old));
+		Assertions.assertEquals(recentWorkspace, registry.ownerToWorkspace.get(recent));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedOverBudget() throws IOException {
+		var ides = new ArrayList<File>();
+		var workspaces = new ArrayList<File>();
+		var handedOut = new WorkspaceRegistry(root());
+		for (int i = 0; i < 3; ++i) {
+			var ide = ide("ide" + i);
+			var workspace = handedOut.workspaceDirForProjectDir(ide);
+			Files.write(new File(workspace, "content").toPath(), new byte[100_000]);
+			ides.add(ide);
+			workspaces.add(workspace);
+		}
+		lastUsed(ides.get(0), 3000);
+		lastUsed(ides.get(1), 1000);
+		lastUsed(ides.get(2), 2000);
+
+		new WorkspaceRegistry(root()).removeAbandonedBlocking(null, 250_000L, workspace -> false);
+		Assertions.assertFalse(workspaces.get(0).exists());
+		Assertions.assertTrue(workspaces.get(1).exists());
+		Assertions.assertTrue(workspaces.get(2).exists());
+	}
+}